@@ -0,0 +1,160 @@
+package de.tudarmstadt.lt.pal;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.query.QueryExecution;
+
+/**
+ * Time budget of a single request.<br/>
+ * SPARQL executions (and HTTP requests sent directly to the endpoint) started on behalf of the
+ * request use the remaining time as timeout and are registered here, so that they can be aborted
+ * once the budget has run out.
+ */
+public class Deadline {
+	/**
+	 * No time limit, executions are neither limited nor registered (use {@link #fork()} to be able
+	 * to abort executions without a time limit)
+	 */
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+	static Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
+
+	private final long expirationTime;
+	/**
+	 * Registered <code>QueryExecution</code>s and <code>HttpUriRequest</code>s
+	 */
+	private final List<Object> executions = new LinkedList<Object>();
+	private boolean aborted = false;
+
+	/**
+	 * @param timeoutMillis Time budget in milliseconds, starting now
+	 */
+	public Deadline(long timeoutMillis) {
+		if (timeoutMillis == Long.MAX_VALUE) {
+			expirationTime = Long.MAX_VALUE;
+		} else {
+			expirationTime = System.currentTimeMillis() + timeoutMillis;
+		}
+	}
+
+	private Deadline(Deadline parent) {
+		expirationTime = parent.expirationTime;
+	}
+
+	/**
+	 * Returns a new deadline with the same expiration time, whose executions are registered
+	 * separately, i.e. can be aborted independently of the executions of this deadline. Unlike
+	 * {@link #NONE}, a fork of an unlimited deadline still registers its executions.
+	 */
+	public Deadline fork() {
+		return new Deadline(this);
+	}
+
+	public boolean isUnlimited() {
+		return expirationTime == Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the remaining time in milliseconds (0 if the deadline has passed), or
+	 * <code>Long.MAX_VALUE</code> if there is no time limit
+	 */
+	public long getRemainingMillis() {
+		if (isUnlimited()) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, expirationTime - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return getRemainingMillis() == 0;
+	}
+
+	/**
+	 * Limits the given execution to the remaining time (as connect/read timeout for remote
+	 * endpoints) and registers it, so that it is aborted by {@link #abort()}. Executions are kept
+	 * until the request is done, aborting an execution that has already been closed has no effect.
+	 * Executions registered after {@link #abort()} are aborted right away.<br/>
+	 * Note: aborting a remote execution (<code>QueryEngineHTTP</code>) only closes a result set that
+	 * is being read, ASK queries keep running until the endpoint responds (use
+	 * {@link #register(HttpUriRequest)} for requests that have to be abortable).
+	 */
+	void register(QueryExecution qexec) {
+		if (this == NONE) {
+			return;
+		}
+		if (!isUnlimited()) {
+			// A timeout of 0 would mean "no timeout"
+			long timeout = Math.max(1, getRemainingMillis());
+			qexec.setTimeout(timeout, timeout);
+		}
+		add(qexec);
+	}
+
+	/**
+	 * Like {@link #register(QueryExecution)}, for HTTP requests that are sent to the endpoint
+	 * directly. Aborting the request closes its connection, even while waiting for the response.
+	 */
+	void register(HttpUriRequest request) {
+		if (this == NONE) {
+			return;
+		}
+		if (!isUnlimited()) {
+			int timeout = (int)Math.min(Integer.MAX_VALUE, Math.max(1, getRemainingMillis()));
+			HttpConnectionParams.setConnectionTimeout(request.getParams(), timeout);
+			HttpConnectionParams.setSoTimeout(request.getParams(), timeout);
+		}
+		add(request);
+	}
+
+	private void add(Object execution) {
+		synchronized (executions) {
+			if (!aborted) {
+				executions.add(execution);
+				return;
+			}
+		}
+		abort(execution);
+	}
+
+	/**
+	 * Aborts all executions that are currently registered and all executions registered later on
+	 */
+	public void abort() {
+		List<Object> toAbort;
+		synchronized (executions) {
+			aborted = true;
+			toAbort = new LinkedList<Object>(executions);
+			executions.clear();
+		}
+		for (Object execution : toAbort) {
+			abort(execution);
+		}
+	}
+
+	/**
+	 * Returns true if {@link #abort()} has been called, i.e. results of executions registered here
+	 * may be incomplete
+	 */
+	public boolean isAborted() {
+		synchronized (executions) {
+			return aborted;
+		}
+	}
+
+	private static void abort(Object execution) {
+		try {
+			if (execution instanceof QueryExecution) {
+				((QueryExecution)execution).abort();
+			} else {
+				((HttpUriRequest)execution).abort();
+			}
+		} catch (Exception e) {
+			log.debug("Failed to abort query execution: " + e.getMessage());
+		}
+	}
+}
@@ -1,8 +1,13 @@
 package de.tudarmstadt.lt.pal;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -13,27 +18,47 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
+import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.sparql.engine.http.QueryEngineHTTP;
+import com.hp.hpl.jena.sparql.resultset.XMLInput;
+import com.hp.hpl.jena.tdb.TDBFactory;
 
 import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.Answer.DataType;
+import de.tudarmstadt.lt.pal.MappedString.Trace;
 import de.tudarmstadt.lt.pal.MappedString.TraceElement;
+import de.tudarmstadt.lt.pal.MappedString.TraceElementSource;
 import de.tudarmstadt.lt.pal.Triple.TypeConstraint;
 import de.tudarmstadt.lt.pal.Triple.TypeConstraint.BasicType;
 import de.tudarmstadt.lt.pal.Triple.Variable;
+import de.tudarmstadt.lt.pal.lucene.LuceneLabelIndex;
+import de.tudarmstadt.lt.pal.util.BoundedCache;
 import de.tudarmstadt.lt.pal.util.ComparablePair;
+import de.tudarmstadt.lt.pal.util.SingleFlight;
 import de.tudarmstadt.lt.pal.util.StringUtil;
+import de.tudarmstadt.lt.pal.util.WordPrefixMatcher;
 
 /**
  * Interface for PAL to talk to SPARQL endpoints. A lot of the PAL "business logic" sits here.
@@ -46,6 +71,18 @@ public class KnowledgeBaseConnector {
 	Collection<String> graphUris;
 	String textIndexSearchPattern;
 	
+	/**
+	 * Local TDB dataset that is queried in-process instead of the remote SPARQL endpoint
+	 * (only set if the configuration specifies a "tdb" directory)
+	 */
+	Dataset tdbDataset;
+	
+	/**
+	 * Local label index that is used to look up resources instead of the text index of
+	 * the SPARQL endpoint (only set if the configuration specifies a "labelIndex" directory)
+	 */
+	LuceneLabelIndex labelIndex;
+	
 	/**
 	 * Checks if a local name qualifies for being abbreviated with one of the available prefixes
 	 * (e.g. "dbpedia:Dan_Brown"). Some URIs do not qualify because they contain unescaped
@@ -185,11 +222,22 @@ public class KnowledgeBaseConnector {
 		Properties props = new Properties();
 		props.load(propertiesFile);
 		sparqlEndpoint = props.getProperty("url");
+		String tdbDirectory = props.getProperty("tdb");
+		if (tdbDirectory != null) {
+			tdbDataset = TDBFactory.createDataset(tdbDirectory);
+			sparqlEndpoint = "tdb:" + tdbDirectory;
+		}
 		if (props.containsKey("graphs")) {
 			String graphs = props.getProperty("graphs");
 			this.graphUris = Arrays.asList(StringUtils.split(graphs, ","));
 		}
 		textIndexSearchPattern = props.getProperty("textIndexSearchPattern");
+		if (props.containsKey("labelIndex")) {
+			labelIndex = new LuceneLabelIndex(new File(props.getProperty("labelIndex")));
+		}
+		if (props.containsKey("metadataSnapshotDir")) {
+			metadataSnapshotDir = new File(props.getProperty("metadataSnapshotDir"));
+		}
 		String prefixes = props.getProperty("prefixes");
 		if (prefixes != null) {
 			String[] prefixesArr = StringUtils.split(prefixes, ",");
@@ -200,6 +248,7 @@ public class KnowledgeBaseConnector {
 				namespacePrefixes.put(prefixValue, prefixKey);
 			}
 		}
+		initCaches(props);
 		init();
 	}
 	
@@ -208,9 +257,40 @@ public class KnowledgeBaseConnector {
 	 */
 	public KnowledgeBaseConnector(String sparqlEndpoint, Collection<String> graphURIs, String textIndexSearchPattern) {
 		this.sparqlEndpoint = sparqlEndpoint;
+		initCaches(new Properties());
 		init();
 	}
 	
+	/**
+	 * Sets up the caches according to the configuration, using the following (optional) properties:
+	 * <ul>
+	 * <li><code>resourceCandidateCacheSize</code>: maximum number of cached resource lookups</li>
+	 * <li><code>propertyCandidateCacheSize</code>: maximum number of cached property lookups</li>
+	 * <li><code>cacheTTL</code>: time in seconds after which cached entries expire (0 = never)</li>
+	 * <li><code>resultCacheSizeMB</code>: maximum (estimated) memory used by cached query results</li>
+	 * <li><code>emptyResultCacheSize</code>: maximum number of cached queries without results</li>
+	 * <li><code>resultCacheTTL</code>: time in seconds after which cached query results (empty or
+	 * not) expire, defaults to <code>cacheTTL</code></li>
+	 * </ul>
+	 */
+	private void initCaches(Properties props) {
+		long ttlMillis = Long.parseLong(props.getProperty("cacheTTL", "0")) * 1000;
+		int resourceCacheSize = Integer.parseInt(props.getProperty("resourceCandidateCacheSize", "10000"));
+		int propertyCacheSize = Integer.parseInt(props.getProperty("propertyCandidateCacheSize", "10000"));
+		resourceCandidateCache = new BoundedCache<String, List<ComparablePair<MappedString, Float>>>("Resource candidate", resourceCacheSize, ttlMillis);
+		propCandidateCache = new BoundedCache<List<Object>, Collection<PropertyCandidate>>("Property candidate", propertyCacheSize, ttlMillis);
+		long resultTTLMillis = Long.parseLong(props.getProperty("resultCacheTTL", Long.toString(ttlMillis / 1000))) * 1000;
+		long resultCacheBytes = Long.parseLong(props.getProperty("resultCacheSizeMB", "64")) * 1024 * 1024;
+		int emptyResultCacheSize = Integer.parseInt(props.getProperty("emptyResultCacheSize", "100000"));
+		resultCache = new BoundedCache<List<Object>, Object>("Query result", resultCacheBytes, resultTTLMillis, new BoundedCache.Weigher<List<Object>, Object>() {
+			@Override
+			public int weigh(List<Object> key, Object value) {
+				return estimateResultSize(key, value);
+			}
+		});
+		emptyResultCache = new BoundedCache<List<Object>, Boolean>("Empty query result", emptyResultCacheSize, resultTTLMillis);
+	}
+	
 	/**
 	 * Fills out the configuration-provided text search pattern
 	 * Example: $x <bif:contains> "'$text'" --> ?label <bif:contains> "'some text'"
@@ -220,11 +300,13 @@ public class KnowledgeBaseConnector {
 	}
 	
 	private void init() {
+		if (tdbDataset == null) {
+			initAskClient();
+		}
 		fillNamespacePrefixes();
 		fillNamespaceBlacklist();
-		retrieveClassesInUse();
-		retrieveObjectProperties();
 		fillDataTypeMappings();
+		loadMetadata();
 	}
 
 	/**
@@ -248,24 +330,164 @@ public class KnowledgeBaseConnector {
 	}
 	
 	private QueryExecution getQueryExec(String query) {
-		numQueries++;
+		return getQueryExec(query, Deadline.NONE);
+	}
+	
+	/**
+	 * Creates an execution of the given query that is limited to the remaining time of the deadline
+	 */
+	private QueryExecution getQueryExec(String query, Deadline deadline) {
+		query = getFullQuery(query);
+		QueryExecution qexec;
+		if (tdbDataset != null) {
+			qexec = QueryExecutionFactory.create(query, tdbDataset);
+		} else {
+			qexec = new QueryEngineHTTP(sparqlEndpoint, query);
+		}
+		deadline.register(qexec);
+		return qexec;
+	}
+	
+	/**
+	 * Adds FROM and PREFIX declarations to the given query (and counts it as executed)
+	 */
+	private String getFullQuery(String query) {
+		checkNotClosed();
+		numQueries.incrementAndGet();
 		String from = getFromGraphDeclarations();
 		query = query.replace("WHERE", from + "\nWHERE");
 		query = getNamespacePrefixDeclarations(query) + "\n" + query;
 		log.debug("SPARQL query: " + query.replace("\n", " "));
-		return new QueryEngineHTTP(sparqlEndpoint, query);
+		return query;
+	}
+	
+	/**
+	 * Client for ASK queries against the remote SPARQL endpoint (not used for TDB datasets).<br/>
+	 * <code>QueryEngineHTTP.abort()</code> cannot stop a running ASK query, as ARQ doesn't keep its
+	 * connection, so ASK requests are sent directly and registered on the deadline instead.
+	 * 
+	 * @see KnowledgeBaseConnector#execAskHTTP(String, Deadline)
+	 */
+	private DefaultHttpClient askClient;
+	
+	/**
+	 * Maximum number of concurrent ASK requests to the SPARQL endpoint
+	 */
+	static final int MAX_NUM_ASK_CONNECTIONS = 64;
+	
+	private void initAskClient() {
+		PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setMaxTotal(MAX_NUM_ASK_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_NUM_ASK_CONNECTIONS);
+		askClient = new DefaultHttpClient(connectionManager);
+	}
+	
+	/**
+	 * Sends the given ASK query to the SPARQL endpoint. The request is registered on the deadline,
+	 * so that aborting the deadline closes the connection, even while waiting for the response.
+	 */
+	private boolean execAskHTTP(String query, Deadline deadline) throws IOException {
+		String separator = sparqlEndpoint.contains("?") ? "&" : "?";
+		HttpGet request = new HttpGet(sparqlEndpoint + separator + "query=" + URLEncoder.encode(getFullQuery(query), "UTF-8"));
+		request.setHeader("Accept", "application/sparql-results+xml");
+		deadline.register(request);
+		try {
+			HttpResponse response = askClient.execute(request);
+			HttpEntity entity = response.getEntity();
+			// ASK results are tiny, read them completely so that the connection can be reused
+			byte[] content = entity != null ? EntityUtils.toByteArray(entity) : null;
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || content == null) {
+				throw new IOException("SPARQL endpoint returned " + response.getStatusLine());
+			}
+			return XMLInput.booleanFromXML(new ByteArrayInputStream(content));
+		} finally {
+			request.releaseConnection();
+		}
+	}
+	
+	/**
+	 * Normalizes whitespace in the query string, so that queries differing only in formatting are
+	 * recognized as identical
+	 */
+	static String normalizeQuery(String query) {
+		return query.trim().replaceAll("\\s+", " ");
+	}
+	
+	/**
+	 * Metadata about the knowledge base (classes in use and object properties).
+	 * May be replaced at any time by a background refresh, therefore methods should read
+	 * this field only once and use the same instance throughout.
+	 */
+	volatile KnowledgeBaseMetadata metadata;
+	
+	/**
+	 * Directory containing metadata snapshots, or <code>null</code> if snapshots are disabled
+	 * 
+	 * @see KnowledgeBaseMetadata
+	 */
+	File metadataSnapshotDir;
+	
+	/**
+	 * Loads the knowledge base metadata. If a snapshot directory is configured, the metadata is read
+	 * from the snapshot of this endpoint configuration (if available) and refreshed in the background.
+	 * Otherwise, it is retrieved from the SPARQL endpoint.
+	 */
+	private void loadMetadata() {
+		if (metadataSnapshotDir != null) {
+			File snapshotFile = KnowledgeBaseMetadata.getSnapshotFile(metadataSnapshotDir, sparqlEndpoint, graphUris);
+			try {
+				metadata = KnowledgeBaseMetadata.readSnapshot(snapshotFile, sparqlEndpoint, graphUris);
+			} catch (IOException e) {
+				log.error("Failed to read metadata snapshot " + snapshotFile + ": ", e);
+			}
+			if (metadata != null) {
+				log.info("Loaded metadata snapshot " + snapshotFile + " for endpoint " + sparqlEndpoint);
+				Thread refreshThread = new Thread("pal-metadata-refresh") {
+					@Override
+					public void run() {
+						refreshMetadata();
+					}
+				};
+				refreshThread.setDaemon(true);
+				refreshThread.start();
+				return;
+			}
+		}
+		refreshMetadata();
 	}
 	
 	/**
-	 * A set of all owl:ObjectProperties provided by the SPARQL endpoint
+	 * Retrieves the metadata from the SPARQL endpoint and replaces the current metadata and
+	 * the metadata snapshot (if enabled). Incomplete results due to errors only replace the
+	 * current metadata if there is none yet, and are never written to the snapshot.
 	 */
-	Set<String> objectProperties;
+	private void refreshMetadata() {
+		Map<String, Integer> classesInUse = new HashMap<String, Integer>();
+		Set<String> objectProperties = new HashSet<String>();
+		// Note: non-short-circuit "&", both have to be retrieved
+		boolean complete = retrieveClassesInUse(classesInUse) & retrieveObjectProperties(objectProperties);
+		if (!complete && metadata != null) {
+			log.warn("Failed to refresh metadata for endpoint " + sparqlEndpoint + ", keeping the existing metadata");
+			return;
+		}
+		KnowledgeBaseMetadata newMetadata = new KnowledgeBaseMetadata(classesInUse, objectProperties);
+		metadata = newMetadata;
+		if (complete && metadataSnapshotDir != null) {
+			File snapshotFile = KnowledgeBaseMetadata.getSnapshotFile(metadataSnapshotDir, sparqlEndpoint, graphUris);
+			try {
+				newMetadata.writeSnapshot(snapshotFile, sparqlEndpoint, graphUris);
+				log.info("Wrote metadata snapshot " + snapshotFile + " for endpoint " + sparqlEndpoint);
+			} catch (IOException e) {
+				log.error("Failed to write metadata snapshot " + snapshotFile + ": ", e);
+			}
+		}
+	}
 	
 	/**
-	 * @see KnowledgeBaseConnector#objectProperties
+	 * @see KnowledgeBaseMetadata#objectProperties
+	 * @return true if the object properties were retrieved successfully
 	 */
-	private void retrieveObjectProperties() {
-		objectProperties = new HashSet<String>();
+	private boolean retrieveObjectProperties(Set<String> objectProperties) {
 		String query = "SELECT DISTINCT ?t WHERE { ?t a owl:ObjectProperty }";
 		try {
 			QueryExecution qexec = getQueryExec(query);
@@ -277,27 +499,18 @@ public class KnowledgeBaseConnector {
 			}
 			qexec.close();
 			log.info("Found " + objectProperties.size() + " object properties for endpoint " + sparqlEndpoint);
+			return true;
 		} catch (Exception e) {
 			log.error("Error retrieving list of object properties: ", e);
+			return false;
 		}
 	}
 	
 	/**
-	 *  type URI -> number of entities with this type
-	 */
-	Map<String, Integer> classesInUse;
-	
-	/**
-	 * @see KnowledgeBaseConnector#classesInUse
+	 * @see KnowledgeBaseMetadata#classesInUse
+	 * @return true if the classes in use were retrieved successfully
 	 */
-	Set<String> classesInUseSet;
-	
-	/**
-	 * @see KnowledgeBaseConnector#classesInUse
-	 */
-	private void retrieveClassesInUse() {
-		classesInUseSet = new HashSet<String>();
-		classesInUse = new HashMap<String, Integer>();
+	private boolean retrieveClassesInUse(Map<String, Integer> classesInUse) {
 		String query = "SELECT ?t (COUNT(?t) as ?count)  WHERE { ?s a ?t } GROUP BY ?t ORDER BY DESC(?count) LIMIT 10000";
 		log.debug("Retrieving classes in use for endpoint " + sparqlEndpoint);
 		try {
@@ -310,23 +523,24 @@ public class KnowledgeBaseConnector {
 					String classResourceUri = t.asResource().getURI();
 					int count = sol.getLiteral("?count").getInt();
 					classesInUse.put(classResourceUri, count);
-					classesInUseSet.add(classResourceUri);
 				} else {
 					log.warn("Query \"" + query + "\" for endpoint " + sparqlEndpoint + " returned a non-resource ?t: " + t);
 				}
 			}
-			log.info("Found " + classesInUseSet.size() + " classes in use for endpoint " + sparqlEndpoint);
+			log.info("Found " + classesInUse.size() + " classes in use for endpoint " + sparqlEndpoint);
 			qexec.close();
+			return true;
 		} catch (Exception e) {
 			log.error("Failed to retrieve classes in use for endpoint " + sparqlEndpoint + ": ", e);
+			return false;
 		}
 	}
 
 	/**
-	 * @see KnowledgeBaseConnector#classesInUse
+	 * @see KnowledgeBaseMetadata#classesInUse
 	 */
 	public boolean resourceIsClass(String uri) {
-		return classesInUseSet.contains(uri);
+		return metadata.classesInUse.containsKey(uri);
 	}
 	
 	/**
@@ -334,7 +548,8 @@ public class KnowledgeBaseConnector {
 	 */
 	ComparablePair<MappedString, Float> getType(Collection<ComparablePair<MappedString, Float>> nameCandidates) {
 		int numCandidates = 10;
-		List<ComparablePair<MappedString, Float>> candidates = getTypeCandidates(nameCandidates, numCandidates);
+		KnowledgeBaseMetadata metadata = this.metadata;
+		List<ComparablePair<MappedString, Float>> candidates = getTypeCandidates(metadata, nameCandidates, numCandidates);
 		float bestScore = 0.0f;
 		if (candidates.size() > 0) {
 			// list is sorted in descending order
@@ -346,7 +561,7 @@ public class KnowledgeBaseConnector {
 				if (c.value < bestScore) {
 					break;
 				}
-				int typeCount = classesInUse.get(c.key.value);
+				int typeCount = metadata.classesInUse.get(c.key.value);
 				c.value += 0.01f * (float)Math.log(typeCount);
 			}
 			List<ComparablePair<MappedString, Float>> candidatesCut = candidates.subList(0, i);
@@ -357,20 +572,36 @@ public class KnowledgeBaseConnector {
 	}
 	
 	/**
-	 * Constructs a list of type candidates from {@link KnowledgeBaseConnector#classesInUse} that
+	 * Trace element for a type that matched a name, e.g. "dbpedia-owl:Book (URI match)". Most type
+	 * candidates are discarded, so the short form of the URI is only built when the trace is listed.
+	 */
+	private class TypeTraceElement implements TraceElementSource {
+		final String typeUri;
+		
+		TypeTraceElement(String typeUri) {
+			this.typeUri = typeUri;
+		}
+		
+		@Override
+		public TraceElement toTraceElement() {
+			return new TraceElement(getSPARQLResourceString(typeUri) + " (URI match)", typeUri);
+		}
+	}
+	
+	/**
+	 * Constructs a list of type candidates from {@link KnowledgeBaseMetadata#classesInUse} that
 	 * match the name candidates
 	 */
-	private List<ComparablePair<MappedString, Float>> getTypeCandidates(Collection<ComparablePair<MappedString, Float>> nameCandidates, int limit) {
+	private List<ComparablePair<MappedString, Float>> getTypeCandidates(KnowledgeBaseMetadata metadata, Collection<ComparablePair<MappedString, Float>> nameCandidates, int limit) {
 		log.debug("Searching types for name candidates: " + nameCandidates);
 		List<ComparablePair<MappedString, Float>> types = new LinkedList<ComparablePair<MappedString, Float>>();
 		for (ComparablePair<MappedString, Float> c : nameCandidates) {
 			String name = formatResourceName(c.key.value);
-			for (String typeUri : classesInUse.keySet()) {
-				String typeName = formatResourceName(getLocalName(typeUri));
+			for (String typeUri : metadata.getClassesWithNamePart(name)) {
+				String typeName = metadata.classNames.get(typeUri);
 				if (StringUtil.hasPart(typeName, name)) {
 					float score = c.value * name.length() / (float)typeName.length();
-					List<TraceElement> trace = new LinkedList<TraceElement>(c.key.trace);
-					trace.add(new TraceElement(getSPARQLResourceString(typeUri) + " (URI match)", typeUri));
+					Trace trace = c.key.trace.append(new TypeTraceElement(typeUri));
 					MappedString mappedType = new MappedString(typeUri, trace);
 					types.add(new ComparablePair<MappedString, Float>(mappedType, score));
 				}
@@ -388,7 +619,7 @@ public class KnowledgeBaseConnector {
 	 * Formats typical ontology type names like "EuropeanCapital123" in a more natural-language
 	 * conformant format ("european capital")
 	 */
-	private String formatResourceName(String name) {
+	static String formatResourceName(String name) {
 		StringBuilder formattedName = new StringBuilder();
 		for (int i = 0; i < name.length(); i++) {
 			char c = name.charAt(i);
@@ -407,7 +638,7 @@ public class KnowledgeBaseConnector {
 	 * dbpedia.org/resource/Dan_Brown -> Dan_Brown
 	 * http://www.w3.org/2001/XMLSchema#string -> string
 	 */
-	private String getLocalName(String uri) {
+	static String getLocalName(String uri) {
 		char sep = '/';
 		if (uri.contains("#")) {
 			sep = '#';
@@ -422,7 +653,7 @@ public class KnowledgeBaseConnector {
 	 * @see KnowledgeBaseConnector#formatResourceName(String)
 	 * @see KnowledgeBaseConnector#getLocalName(String)
 	 */
-	private String getResourceName(String uri) {
+	static String getResourceName(String uri) {
 		return formatResourceName(getLocalName(uri));
 	}
 	
@@ -431,23 +662,39 @@ public class KnowledgeBaseConnector {
 	 * 
 	 * @see KnowledgeBaseConnector#getResourceCandidates(String, int)
 	 */
-	Map<String, List<ComparablePair<MappedString, Float>>> resourceCandidateCache = new HashMap<String, List<ComparablePair<MappedString, Float>>>();
+	BoundedCache<String, List<ComparablePair<MappedString, Float>>> resourceCandidateCache;
+	
+	/**
+	 * Concurrent lookups of the same resource share a single SPARQL query, keyed by the normalized query string
+	 */
+	private final SingleFlight<String, List<ComparablePair<MappedString, Float>>> resourceCandidateQueries =
+			new SingleFlight<String, List<ComparablePair<MappedString, Float>>>("Resource candidate");
 	
 	/**
 	 * Returns a list of resources matching the given <code>name</code>, limited to
 	 * <code>limit</code> results
 	 */
 	List<ComparablePair<MappedString, Float>> getResourceCandidates(String name, int limit) {
+		return getResourceCandidates(name, limit, Deadline.NONE);
+	}
+	
+	/**
+	 * Returns a list of resources matching the given <code>name</code>, limited to
+	 * <code>limit</code> results. Searching the SPARQL endpoint is limited to the remaining time
+	 * of the deadline.
+	 */
+	List<ComparablePair<MappedString, Float>> getResourceCandidates(String name, final int limit, final Deadline deadline) {
 		if (name.contains("#")) {
 			int sepIndex = name.indexOf('#');
 			name = name.substring(0, sepIndex);
 		}
 		List<ComparablePair<MappedString, Float>> candidates = resourceCandidateCache.get(name);
 		if (candidates == null) {
-			candidates = new LinkedList<ComparablePair<MappedString, Float>>();
-			log.debug("Searching resources... [" + name + "]");
-			{
-				String queryString = "SELECT DISTINCT ?subject ?name WHERE { \n"
+			if (labelIndex != null) {
+				candidates = searchResourceCandidates(name, null, limit, deadline);
+			} else {
+				final String _name = name;
+				final String queryString = "SELECT DISTINCT ?subject ?name WHERE { \n"
 			                       + "  { ?subject foaf:name ?name . " + fillTextIndexSearchPattern(textIndexSearchPattern, "?name", name) + "} UNION\n"
 					               + "  { ?subject rdfs:label ?name . " + fillTextIndexSearchPattern(textIndexSearchPattern, "?name", name) + "} . \n"
 								   + "  { ?subject foaf:name ?name . FILTER(lang(?name) = \"\" || langMatches(lang(?name), \"en\")) }\n"
@@ -455,52 +702,131 @@ public class KnowledgeBaseConnector {
 	                               + "  { ?subject rdfs:label ?name . FILTER(lang(?name) = \"\" || langMatches(lang(?name), \"en\")) }\n"
 					               + "} \n"
 						           + "LIMIT 1000";
-				try {
-					QueryExecution qexec = getQueryExec(queryString);
-					ResultSet results = qexec.execSelect();
-					for (; results.hasNext(); )
-					{
-						QuerySolution soln = results.nextSolution();
-						String rName = soln.getLiteral("name").getString();
-						Resource r = soln.getResource("subject");
-						if (r != null) {
-							String shortUri = getSPARQLResourceString(r.getURI());
-							List<TraceElement> trace = new LinkedList<TraceElement>();
-							trace.add(new TraceElement(name, ""));
-							float labelScore = rName.isEmpty() ? 0 : (float)StringUtil.longestCommonSubstring(name, rName).length() / rName.length();
-							String rNameFromURI = getResourceName(r.getURI());
-							float resourceNameScore = rNameFromURI.isEmpty() ? 0 : (float)StringUtil.longestCommonSubstring(name, rNameFromURI).length() / rNameFromURI.length();
-							float comboScore = labelScore * 0.5f + resourceNameScore * 0.5f;
-							// Assign penalty for inexact matches
-							float inexactMatchPenalty = 0.5f;
-							if (comboScore < 1.0f) {
-								comboScore = comboScore * inexactMatchPenalty;
-								trace.add(new TraceElement(shortUri + " (partial match)", r.getURI()));
-							} else {
-								trace.add(new TraceElement(shortUri + " (exact match)", r.getURI()));
-							}
-							candidates.add(new ComparablePair<MappedString, Float>(new MappedString(shortUri, trace), comboScore));
-						}
+				candidates = resourceCandidateQueries.execute(normalizeQuery(queryString), new Callable<List<ComparablePair<MappedString, Float>>>() {
+					@Override
+					public List<ComparablePair<MappedString, Float>> call() {
+						return searchResourceCandidates(_name, queryString, limit, deadline);
 					}
-					qexec.close();
-				} catch (Exception e) {
-					log.error("Failed to retrieve resource candidates from SPARQL endpoint.", e);
-				}
+				}, deadline.getRemainingMillis());
+			}
+			// Failed or timed out (possibly while waiting for another lookup of the same resource)
+			if (candidates == null) {
+				candidates = new LinkedList<ComparablePair<MappedString, Float>>();
 			}
+		}
+		return candidates;
+	}
 	
-			Collections.sort(candidates);
-			
-			if (candidates.size() > limit) {
-				candidates = candidates.subList(0, limit);
+	/**
+	 * Searches resources matching the given <code>name</code> in the label index (by phrase, or by
+	 * prefix if no label contains the phrase) or, if there is none, using the given SPARQL query, and
+	 * adds them to the resource candidate cache. Returns <code>null</code> if the query failed, e.g.
+	 * because it timed out
+	 */
+	private List<ComparablePair<MappedString, Float>> searchResourceCandidates(String name, String queryString, int limit, Deadline deadline) {
+		List<ComparablePair<MappedString, Float>> candidates = new LinkedList<ComparablePair<MappedString, Float>>();
+		boolean failed = false;
+		log.debug("Searching resources... [" + name + "]");
+		if (labelIndex != null) {
+			checkNotClosed();
+			List<LuceneLabelIndex.Label> labels = labelIndex.search(name, 1000);
+			// Fall back to incomplete last words, e.g. "dan bro" for "Dan Brown"
+			if (labels.isEmpty()) {
+				labels = labelIndex.searchPrefix(name, 1000);
+			}
+			for (LuceneLabelIndex.Label label : labels) {
+				candidates.add(scoreResourceCandidate(name, label.uri, label.label));
 			}
+		} else {
+			try {
+				QueryExecution qexec = getQueryExec(queryString, deadline);
+				ResultSet results = qexec.execSelect();
+				for (; results.hasNext(); )
+				{
+					QuerySolution soln = results.nextSolution();
+					String rName = soln.getLiteral("name").getString();
+					Resource r = soln.getResource("subject");
+					if (r != null) {
+						candidates.add(scoreResourceCandidate(name, r.getURI(), rName));
+					}
+				}
+				qexec.close();
+			} catch (Exception e) {
+				log.error("Failed to retrieve resource candidates from SPARQL endpoint.", e);
+				failed = true;
+			}
+		}
+
+		Collections.sort(candidates);
+		
+		if (candidates.size() > limit) {
+			candidates = candidates.subList(0, limit);
+		}
 
-			resourceCandidateCache.put(name, candidates);
-			log.debug("Done searching resources. Results: " + candidates);
+		if (failed) {
+			return null;
 		}
+		resourceCandidateCache.put(name, candidates);
+		log.debug("Done searching resources. Results: " + candidates);
 		return candidates;
 	}
 	
-	private static int numQueries = 0;
+	/**
+	 * Scores how well a resource with the given URI and label matches the searched <code>name</code>
+	 */
+	private ComparablePair<MappedString, Float> scoreResourceCandidate(String name, String uri, String rName) {
+		String shortUri = getSPARQLResourceString(uri);
+		Trace trace = Trace.EMPTY.append(name, "");
+		float labelScore = rName.isEmpty() ? 0 : (float)StringUtil.longestCommonSubstring(name, rName).length() / rName.length();
+		String rNameFromURI = getResourceName(uri);
+		float resourceNameScore = rNameFromURI.isEmpty() ? 0 : (float)StringUtil.longestCommonSubstring(name, rNameFromURI).length() / rNameFromURI.length();
+		float comboScore = labelScore * 0.5f + resourceNameScore * 0.5f;
+		// Assign penalty for inexact matches
+		float inexactMatchPenalty = 0.5f;
+		if (comboScore < 1.0f) {
+			comboScore = comboScore * inexactMatchPenalty;
+			trace = trace.append(shortUri, "partial match", uri);
+		} else {
+			trace = trace.append(shortUri, "exact match", uri);
+		}
+		return new ComparablePair<MappedString, Float>(new MappedString(shortUri, trace), comboScore);
+	}
+	
+	/**
+	 * Retrieves all English labels (<code>rdfs:label</code> and <code>foaf:name</code>) from the
+	 * SPARQL endpoint page by page and adds them to the given label index
+	 */
+	public void retrieveLabels(LuceneLabelIndex.Writer writer) throws IOException {
+		final int PAGE_SIZE = 10000;
+		int numResults = PAGE_SIZE;
+		for (int offset = 0; numResults == PAGE_SIZE; offset += PAGE_SIZE) {
+			String queryString = "SELECT ?subject ?name WHERE { \n"
+			                   + "  { ?subject foaf:name ?name . FILTER(lang(?name) = \"\" || langMatches(lang(?name), \"en\")) }\n"
+			                   + "  UNION\n"
+			                   + "  { ?subject rdfs:label ?name . FILTER(lang(?name) = \"\" || langMatches(lang(?name), \"en\")) }\n"
+			                   + "} \n"
+			                   // Without a fixed order, endpoints may return overlapping pages
+			                   + "ORDER BY ?subject ?name \n"
+			                   + "LIMIT " + PAGE_SIZE + " OFFSET " + offset;
+			numResults = 0;
+			QueryExecution qexec = getQueryExec(queryString);
+			try {
+				ResultSet results = qexec.execSelect();
+				while (results.hasNext()) {
+					QuerySolution soln = results.nextSolution();
+					numResults++;
+					Resource r = soln.getResource("subject");
+					if (r != null && r.isURIResource()) {
+						writer.addLabel(r.getURI(), soln.getLiteral("name").getString());
+					}
+				}
+			} finally {
+				qexec.close();
+			}
+		}
+	}
+	
+	private static AtomicInteger numQueries = new AtomicInteger();
 	
 	public static class Answer {
 		public enum DataType {
@@ -515,45 +841,317 @@ public class KnowledgeBaseConnector {
 		public String label; // Only used for resources
 	}
 
+	/**
+	 * Determines how a query result was extracted from the result set, queries with the same SPARQL
+	 * string but a different result type are cached separately
+	 */
+	enum ResultType {
+		Answers,
+		Values,
+		Ask
+	}
+	
+	/**
+	 * Cache for non-empty query results, bounded by their estimated memory usage. Values are
+	 * unmodifiable collections (copied before being returned), or <code>Boolean.TRUE</code> for ASK queries.
+	 * 
+	 * @see KnowledgeBaseConnector#getResultCacheKey(ResultType, String, Object)
+	 */
+	BoundedCache<List<Object>, Object> resultCache;
+	
+	/**
+	 * Cache for queries without results. Kept separately from {@link #resultCache}, as most query
+	 * candidates don't have any results and these entries are much smaller.
+	 */
+	BoundedCache<List<Object>, Boolean> emptyResultCache;
+	
+	/**
+	 * @param projection Additional parameter that determines which values are extracted from the result set
+	 */
+	static List<Object> getResultCacheKey(ResultType type, String queryString, Object projection) {
+		return Arrays.asList(type, normalizeQuery(queryString), projection);
+	}
+	
+	/**
+	 * Roughly estimates the memory usage of a cached query result in bytes
+	 */
+	private static int estimateResultSize(List<Object> key, Object result) {
+		int size = 64 + 2 * ((String)key.get(1)).length();
+		if (result instanceof Collection) {
+			for (Object o : (Collection<?>)result) {
+				size += 32;
+				if (o instanceof Answer) {
+					Answer a = (Answer)o;
+					size += 32 + (a.value != null ? 2 * a.value.length() : 0) + (a.label != null ? 2 * a.label.length() : 0);
+				} else if (o instanceof String) {
+					size += 40 + 2 * ((String)o).length();
+				}
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns a copy of the cached result for the given key (an empty collection if the query is
+	 * known to have no results), or <code>null</code> if the result is not cached
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> Collection<T> getCachedResult(List<Object> cacheKey) {
+		if (emptyResultCache.get(cacheKey) != null) {
+			return new LinkedList<T>();
+		}
+		Collection<T> res = (Collection<T>)resultCache.get(cacheKey);
+		return res != null ? new LinkedList<T>(res) : null;
+	}
+	
+	/**
+	 * Adds a query result to the cache. Results of interrupted (i.e. cancelled) executions are not
+	 * cached, as they might be incomplete.
+	 */
+	private <T> void cacheResult(List<Object> cacheKey, Collection<T> res) {
+		if (Thread.currentThread().isInterrupted()) {
+			return;
+		}
+		if (res.isEmpty()) {
+			emptyResultCache.put(cacheKey, Boolean.TRUE);
+		} else {
+			resultCache.put(cacheKey, Collections.unmodifiableList(new ArrayList<T>(res)));
+		}
+	}
+	
 	/**
 	 * Executes the specified SPARQL query and returns the result(s) with
 	 * respect to the focus variable
 	 */
 	public Collection<Answer> query(Query query) {
+		return query(query, Deadline.NONE);
+	}
+	
+	/**
+	 * Executes the specified SPARQL query and returns the result(s) with respect to the focus
+	 * variable that could be retrieved within the remaining time of the deadline
+	 */
+	public Collection<Answer> query(Query query, Deadline deadline) {
+		Collection<Answer> res = new LinkedList<Answer>();
+		AnswerIterator it = queryAnswers(query, deadline);
+		try {
+			while (it.hasNext()) {
+				res.add(it.next());
+			}
+		} finally {
+			it.close();
+		}
+		return res;
+	}
+	
+	/**
+	 * Executes the specified SPARQL query and returns an iterator over the result(s) with respect
+	 * to the focus variable. Unlike {@link KnowledgeBaseConnector#query(Query)}, the result rows are
+	 * only parsed as they are requested, so callers that need only the first few answers can stop early.
+	 * The iterator has to be closed afterwards (which is done automatically once it is exhausted).
+	 */
+	public AnswerIterator queryAnswers(Query query) {
+		return queryAnswers(query, Deadline.NONE);
+	}
+	
+	/**
+	 * Like {@link KnowledgeBaseConnector#queryAnswers(Query)}, but the execution is limited to the
+	 * remaining time of the deadline (after which the iterator ends early)
+	 */
+	public AnswerIterator queryAnswers(Query query, Deadline deadline) {
 		final int RESULT_LIMIT = 1000;
 		String queryStr = queryToSPARQLWithLabel(query, RESULT_LIMIT);
-		Collection<Answer> res = new LinkedList<Answer>();
-		
+		List<Object> cacheKey = getResultCacheKey(ResultType.Answers, queryStr, query.focusVar.name);
+		Collection<Answer> cachedRes = getCachedResult(cacheKey);
+		if (cachedRes != null) {
+			return new AnswerIterator(cachedRes.iterator());
+		}
+		QueryExecution qexec = null;
 		try {
-			QueryExecution qexec = getQueryExec(queryStr);
-			ResultSet results = qexec.execSelect();
-			for (; results.hasNext(); )
-			{
-				Answer a = new Answer();
-				QuerySolution soln = results.nextSolution();
-				RDFNode var = soln.get(query.focusVar.name);
-				if (var != null) {
-					if (var.isResource()) {
-						Resource r = var.asResource();
-//						a.value = URLDecoder.decode(r.getURI(), "UTF-8");
-						a.value = r.getURI();
-						a.dataType = Answer.DataType.Resource;
-						RDFNode label = soln.get("_label");
-						if (label != null) {
-							a.label = ((Literal)label).getValue().toString();
-						}
-					} else if (var.isLiteral()) {
-						Literal l = var.asLiteral();
-						a.value = l.getValue().toString();
-						a.dataType = dataTypeMappings.get(l.getDatatypeURI());
-					}
-					
-					res.add(a);
+			qexec = getQueryExec(queryStr, deadline);
+			return new AnswerIterator(qexec, queryStr, query.focusVar.name, cacheKey);
+		} catch (Exception e) {
+			log.error("Error executing SPARQL query \"" + queryStr.replace("\n", " ") + "\". ", e);
+			if (qexec != null) {
+				qexec.close();
+			}
+			return new AnswerIterator(Collections.<Answer>emptyList().iterator());
+		}
+	}
+	
+	/**
+	 * Iterator over the answers of a query, parsing the result rows on demand.<br/>
+	 * Once all rows have been read, the answers are added to the result cache and the underlying
+	 * query execution is closed. Callers that stop early have to call {@link #close()} to release
+	 * the connection.
+	 */
+	public class AnswerIterator implements Iterator<Answer>, Closeable {
+		private QueryExecution qexec;
+		private ResultSet results;
+		private String queryStr;
+		private String focusVar;
+		private List<Object> cacheKey;
+		/**
+		 * All answers read so far, to be cached once the result set is exhausted
+		 */
+		private List<Answer> answers;
+		private Iterator<Answer> cachedAnswers;
+		private Answer next;
+		
+		/**
+		 * Iterates over the results of the given query execution
+		 */
+		AnswerIterator(QueryExecution qexec, String queryStr, String focusVar, List<Object> cacheKey) {
+			this.qexec = qexec;
+			this.queryStr = queryStr;
+			this.focusVar = focusVar;
+			this.cacheKey = cacheKey;
+			answers = new LinkedList<Answer>();
+			results = qexec.execSelect();
+		}
+		
+		/**
+		 * Iterates over already known (e.g. cached) answers
+		 */
+		AnswerIterator(Iterator<Answer> cachedAnswers) {
+			this.cachedAnswers = cachedAnswers;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (cachedAnswers != null) {
+				return cachedAnswers.hasNext();
+			}
+			try {
+				while (next == null && results != null && results.hasNext()) {
+					next = createAnswer(results.nextSolution(), focusVar);
 				}
+			} catch (Exception e) {
+				log.error("Error executing SPARQL query \"" + queryStr.replace("\n", " ") + "\". ", e);
+				answers = null;
+			}
+			if (next == null) {
+				if (answers != null) {
+					cacheResult(cacheKey, answers);
+				}
+				close();
+				return false;
+			}
+			if (answers != null) {
+				answers.add(next);
+			}
+			return true;
+		}
+		
+		@Override
+		public Answer next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (cachedAnswers != null) {
+				return cachedAnswers.next();
+			}
+			Answer a = next;
+			next = null;
+			return a;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		/**
+		 * Closes the underlying query execution, no further answers are returned afterwards
+		 */
+		@Override
+		public void close() {
+			if (qexec != null) {
+				qexec.close();
+				qexec = null;
+			}
+			results = null;
+			answers = null;
+			next = null;
+			cachedAnswers = null;
+		}
+	}
+	
+	/**
+	 * Creates an answer from the focus variable binding of a result row, or returns <code>null</code>
+	 * if the focus variable is not bound
+	 */
+	private Answer createAnswer(QuerySolution soln, String focusVar) {
+		RDFNode var = soln.get(focusVar);
+		if (var == null) {
+			return null;
+		}
+		Answer a = new Answer();
+		if (var.isResource()) {
+			Resource r = var.asResource();
+//			a.value = URLDecoder.decode(r.getURI(), "UTF-8");
+			a.value = r.getURI();
+			a.dataType = Answer.DataType.Resource;
+			RDFNode label = soln.get("_label");
+			if (label != null) {
+				a.label = ((Literal)label).getValue().toString();
+			}
+		} else if (var.isLiteral()) {
+			Literal l = var.asLiteral();
+			a.value = l.getValue().toString();
+			a.dataType = dataTypeMappings.get(l.getDatatypeURI());
+		}
+		return a;
+	}
+	
+	/**
+	 * Checks if the specified SPARQL query yields any result with respect to the focus variable.
+	 * Unlike {@link KnowledgeBaseConnector#query(Query)}, this only sends an ASK query and does not
+	 * retrieve any labels, which makes it the cheaper choice to filter out query candidates.
+	 */
+	public boolean hasResults(Query query) {
+		return hasResults(query, Deadline.NONE);
+	}
+	
+	/**
+	 * Like {@link KnowledgeBaseConnector#hasResults(Query)}, but the execution is limited to the
+	 * remaining time of the deadline. Returns <code>false</code> if it doesn't finish in time.
+	 */
+	public boolean hasResults(Query query, Deadline deadline) {
+		String queryStr = queryToSPARQLAsk(query);
+		List<Object> cacheKey = getResultCacheKey(ResultType.Ask, queryStr, null);
+		if (emptyResultCache.get(cacheKey) != null) {
+			return false;
+		} else if (resultCache.get(cacheKey) != null) {
+			return true;
+		}
+		boolean res = false;
+		QueryExecution qexec = null;
+		try {
+			if (tdbDataset != null) {
+				qexec = getQueryExec(queryStr, deadline);
+				res = qexec.execAsk();
+			} else {
+				res = execAskHTTP(queryStr, deadline);
+			}
+			if (res) {
+				resultCache.put(cacheKey, Boolean.TRUE);
+			} else if (!Thread.currentThread().isInterrupted() && !deadline.isAborted()) {
+				emptyResultCache.put(cacheKey, Boolean.TRUE);
 			}
-			qexec.close();
 		} catch (Exception e) {
-			log.error("Error executing SPARQL query \"" + queryStr.replace("\n", " ") + "\". ", e);
+			if (deadline.isAborted()) {
+				log.debug("Aborted SPARQL query \"" + queryStr.replace("\n", " ") + "\"");
+			} else {
+				log.error("Error executing SPARQL query \"" + queryStr.replace("\n", " ") + "\". ", e);
+			}
+		} finally {
+			if (qexec != null) {
+				qexec.close();
+			}
 		}
 		return res;
 	}
@@ -576,17 +1174,7 @@ public class KnowledgeBaseConnector {
 	 */
 	public String queryToSPARQLWithLabel(Query q, int limit) {
 		String queryStr = "SELECT DISTINCT " + q.focusVar.sparqlString() + " (SAMPLE(?string) as ?_label) WHERE {\n";
-		for (Variable var : q.vars.values()) {
-			if (var.mappedType != null) {
-				queryStr += getTypeConstraintSPARQLString(var.mappedType, var.name);
-			}
-		}
-		for (Triple t : q.triples) {
-			queryStr += "   ";
-			queryStr += t.subject.sparqlString() + " ";
-			queryStr += t.predicate.sparqlString() + " ";
-			queryStr += t.object.sparqlString() + " .\n";
-		}
+		queryStr += getGraphPatternSPARQLString(q);
 		if (q.focusVar != null) {
 			queryStr += "   OPTIONAL { ";
 			queryStr += "{ " + q.focusVar.sparqlString() + " rdfs:label ?string . FILTER (lang(?string)=\"en\" || lang(?string)=\"\") } UNION";
@@ -603,20 +1191,40 @@ public class KnowledgeBaseConnector {
 	 */
 	public String queryToSPARQL(Query q) {
 		String queryStr = "SELECT DISTINCT ?" + q.focusVar.name + " WHERE {\n";
+		queryStr += getGraphPatternSPARQLString(q);
+		queryStr += "}";
+		return queryStr;
+	}
+	
+	/**
+	 * Constructs a SPARQL ASK query that checks if the specified query yields any results
+	 * with respect to its focus variable
+	 */
+	public String queryToSPARQLAsk(Query q) {
+		String queryStr = "ASK WHERE {\n";
+		queryStr += getGraphPatternSPARQLString(q);
+		queryStr += "   FILTER(BOUND(" + q.focusVar.sparqlString() + ")) .\n";
+		queryStr += "}";
+		return queryStr;
+	}
+	
+	/**
+	 * Constructs the type constraints and triple patterns of the specified query
+	 */
+	private String getGraphPatternSPARQLString(Query q) {
+		StringBuilder res = new StringBuilder();
 		for (Variable var : q.vars.values()) {
 			if (var.mappedType != null) {
-				queryStr += getTypeConstraintSPARQLString(var.mappedType, var.name);
+				res.append(getTypeConstraintSPARQLString(var.mappedType, var.name));
 			}
 		}
 		for (Triple t : q.triples) {
-			queryStr += "   ";
-			queryStr += t.subject.sparqlString() + " ";
-			queryStr += t.predicate.sparqlString() + " ";
-			queryStr += t.object.sparqlString() + " .\n";
+			res.append("   ");
+			res.append(t.subject.sparqlString() + " ");
+			res.append(t.predicate.sparqlString() + " ");
+			res.append(t.object.sparqlString() + " .\n");
 		}
-
-		queryStr += "}";
-		return queryStr;
+		return res.toString();
 	}
 	
 	/**
@@ -625,7 +1233,12 @@ public class KnowledgeBaseConnector {
 	 * one variable)
 	 */
 	public Collection<String> query(String queryString, Set<String> varsToIgnore) {
-		Collection<String> res = new LinkedList<String>();
+		List<Object> cacheKey = getResultCacheKey(ResultType.Values, queryString, new HashSet<String>(varsToIgnore));
+		Collection<String> res = getCachedResult(cacheKey);
+		if (res != null) {
+			return res;
+		}
+		res = new LinkedList<String>();
 
 		try {
 			QueryExecution qexec = getQueryExec(queryString);
@@ -652,6 +1265,7 @@ public class KnowledgeBaseConnector {
 				}
 			}
 			qexec.close();
+			cacheResult(cacheKey, res);
 		} catch (Exception e) {
 			log.error("Failed to execute query \"" + queryString + "\":", e);
 		}
@@ -675,6 +1289,11 @@ public class KnowledgeBaseConnector {
 		if (!queryString.contains("LIMIT")) {
 			queryString += " LIMIT " + RESULT_LIMIT;
 		}
+		List<Object> cacheKey = getResultCacheKey(ResultType.Values, queryString, focusVariable);
+		Collection<String> cachedRes = getCachedResult(cacheKey);
+		if (cachedRes != null) {
+			return cachedRes;
+		}
 		
 		try {
 			QueryExecution qexec = getQueryExec(queryString);
@@ -696,6 +1315,7 @@ public class KnowledgeBaseConnector {
 				}
 			}
 			qexec.close();
+			cacheResult(cacheKey, res);
 		} catch (Exception e) {
 			log.error("Failed to execute query \"" + queryString + "\":", e);
 		}
@@ -723,10 +1343,239 @@ public class KnowledgeBaseConnector {
 	
 	class PropertyCandidate {
 		String uri;
+		/**
+		 * Formatted local name of the property, e.g. "birth place" for dbpedia-owl:birthPlace
+		 */
+		String name;
 		int count;
 		@Override public String toString() { return uri + " (" + count + ")"; } 
 	}
-	Map<List<Object>, Collection<PropertyCandidate>> propCandidateCache = new HashMap<List<Object>, Collection<PropertyCandidate>>();
+	
+	/**
+	 * Cache for (unscored) property candidates
+	 * 
+	 * @see KnowledgeBaseConnector#getPropertyCandidates(List, String, String, TypeConstraint, TypeConstraint)
+	 */
+	BoundedCache<List<Object>, Collection<PropertyCandidate>> propCandidateCache;
+	
+	/**
+	 * Concurrent lookups of the same property candidates share a single SPARQL query, keyed by the
+	 * normalized query string
+	 * 
+	 * @see KnowledgeBaseConnector#getUnscoredPropertyCandidates(String, String, TypeConstraint, TypeConstraint, boolean, Deadline)
+	 */
+	private final SingleFlight<String, Collection<PropertyCandidate>> propCandidateQueries =
+			new SingleFlight<String, Collection<PropertyCandidate>>("Property candidate");
+	/**
+	 * @see KnowledgeBaseConnector#prefetchPropertyCandidates(Collection, TypeConstraint, Deadline)
+	 */
+	private final SingleFlight<String, Boolean> propCandidatePrefetchQueries =
+			new SingleFlight<String, Boolean>("Property candidate prefetch");
+	
+	/**
+	 * Maximum number of property candidates per resource (and direction)
+	 */
+	static final int MAX_NUM_PROPERTY_CANDIDATES = 1000;
+	
+	private static List<Object> getPropCandidateCacheKey(String subjectURI, String objectURI, TypeConstraint subjectTC, TypeConstraint objectTC) {
+		return Arrays.asList(subjectURI, objectURI, subjectTC, objectTC);
+	}
+	
+	/**
+	 * Retrieves all properties connecting the given resources and/or type constraints along with
+	 * their number of connections (from the cache if possible), or <code>null</code> on error
+	 */
+	Collection<PropertyCandidate> getUnscoredPropertyCandidates(String subjectURI, String objectURI,
+			                                                          TypeConstraint subjectTC, TypeConstraint objectTC, boolean useCountScore, final Deadline deadline) {
+		final List<Object> cacheKey = getPropCandidateCacheKey(subjectURI, objectURI, subjectTC, objectTC);
+		Collection<PropertyCandidate> propCandidates = propCandidateCache.get(cacheKey);
+		if (propCandidates != null) {
+			return propCandidates;
+		}
+		String querySubject = subjectURI == null ? "?s" : subjectURI;
+		String queryObject = objectURI == null ? "?o" : objectURI;
+		String query = "SELECT ?p ";
+		// Count number of property "connections" if we have no clue about the property
+		if (useCountScore) {
+			String countVar = subjectURI == null ? "?s" : "?o";
+			query += "(COUNT(" + countVar + ") AS ?count)";
+		}
+		query += " WHERE { ";
+		query += querySubject + " ?p " + queryObject + " . ";
+		query += getTypeConstraintSPARQLString(subjectTC, "s");
+		query += getTypeConstraintSPARQLString(objectTC, "o");
+		query += "}";
+		if (useCountScore) {
+			// Order ties by property, so that the order is the same as in prefetchPropertyCandidates()
+			query += " GROUP BY ?p ORDER BY DESC(?count) ?p";
+		}
+		query += " LIMIT " + MAX_NUM_PROPERTY_CANDIDATES;
+		final String _query = query;
+		final boolean _useCountScore = useCountScore;
+		return propCandidateQueries.execute(normalizeQuery(query), new Callable<Collection<PropertyCandidate>>() {
+			@Override
+			public Collection<PropertyCandidate> call() {
+				return retrievePropertyCandidates(_query, cacheKey, _useCountScore, deadline);
+			}
+		}, deadline.getRemainingMillis());
+	}
+	
+	/**
+	 * Executes the given property candidate query and adds the result to the property candidate cache
+	 * 
+	 * @see KnowledgeBaseConnector#getUnscoredPropertyCandidates(String, String, TypeConstraint, TypeConstraint, boolean, Deadline)
+	 */
+	private Collection<PropertyCandidate> retrievePropertyCandidates(String query, List<Object> cacheKey, boolean useCountScore, Deadline deadline) {
+		Collection<PropertyCandidate> propCandidates = new LinkedList<PropertyCandidate>();
+		QueryExecution qexec = null;
+		try {
+			qexec = getQueryExec(query, deadline);
+			ResultSet propPreCandidates = qexec.execSelect();
+			while (propPreCandidates.hasNext()) {
+				QuerySolution sol = propPreCandidates.next();
+				PropertyCandidate pc = createPropertyCandidate(sol, useCountScore);
+				// Probably the result set is empty (but has one null entry with count 0)
+				if (pc == null && sol.getResource("p") == null) {
+					break;
+				} else if (pc != null) {
+					propCandidates.add(pc);
+				}
+			}
+		} catch (Exception e) {
+			// e.g. timed out, the (incomplete) result is not cached
+			log.error("Error while executing query: \"" + query + "\": " + e.getMessage());
+			return null;
+		} finally {
+			if (qexec != null) {
+				qexec.close();
+			}
+		}
+		// Only publish the list once it is complete, other threads might read it concurrently
+		propCandidateCache.put(cacheKey, propCandidates);
+		return propCandidates;
+	}
+	
+	/**
+	 * Creates a property candidate from a result row with the bindings ?p and ?count, or returns
+	 * <code>null</code> if the row has no (or a blacklisted) property
+	 */
+	private PropertyCandidate createPropertyCandidate(QuerySolution sol, boolean useCountScore) {
+		Resource pRes = sol.getResource("p");
+		if (pRes == null) {
+			return null;
+		}
+		String pUri = pRes.getURI();
+		if (uriIsBlacklisted(pUri)) {
+			return null;
+		}
+		PropertyCandidate pc = new PropertyCandidate();
+		pc.uri = pUri;
+		pc.name = formatResourceName(getLocalName(pUri));
+		if (useCountScore) {
+			pc.count = sol.getLiteral("count").getInt();
+		}
+		return pc;
+	}
+	
+	/**
+	 * Retrieves the property candidates of several resources with a single query and adds them to
+	 * the property candidate cache. For each resource, both directions are retrieved, i.e. the
+	 * candidates for <code>getPropertyCandidates(..., resourceURI, null, null, varTC)</code>
+	 * (resource as subject) and <code>getPropertyCandidates(..., null, resourceURI, varTC, null)</code>
+	 * (resource as object). Resources whose candidates are already cached are skipped.
+	 * 
+	 * @param resourceURIs Resources in the form returned by {@link #getResourceCandidates(String, int)}
+	 * @param varTC Type constraint of the variable on the other side of the property
+	 */
+	void prefetchPropertyCandidates(Collection<String> resourceURIs, TypeConstraint varTC, final Deadline deadline) {
+		// Literals on the subject side don't make sense, see getPropertyCandidates()
+		boolean queryResourceAsObject = varTC == null || varTC.basicType != BasicType.Literal;
+		Set<String> resources = new HashSet<String>();
+		StringBuilder values = new StringBuilder();
+		for (String resourceURI : resourceURIs) {
+			boolean subjectCached = propCandidateCache.get(getPropCandidateCacheKey(resourceURI, null, null, varTC)) != null;
+			boolean objectCached = !queryResourceAsObject || propCandidateCache.get(getPropCandidateCacheKey(null, resourceURI, varTC, null)) != null;
+			if (!subjectCached || !objectCached) {
+				resources.add(resourceURI);
+				values.append(resourceURI).append(" ");
+			}
+		}
+		if (resources.isEmpty()) {
+			return;
+		}
+		String query = "SELECT ?r ?dir ?p (COUNT(*) AS ?count) WHERE { ";
+		query += "VALUES ?r { " + values + "} ";
+		query += "{ ?r ?p ?o . " + getTypeConstraintSPARQLString(varTC, "o") + " BIND(\"s\" AS ?dir) } ";
+		if (queryResourceAsObject) {
+			query += "UNION { ?s ?p ?r . " + getTypeConstraintSPARQLString(varTC, "s") + " BIND(\"o\" AS ?dir) } ";
+		}
+		query += "} GROUP BY ?r ?dir ?p ORDER BY ?r ?dir DESC(?count) ?p";
+		final String _query = query;
+		final Set<String> _resources = resources;
+		final boolean _queryResourceAsObject = queryResourceAsObject;
+		final TypeConstraint _varTC = varTC;
+		propCandidatePrefetchQueries.execute(normalizeQuery(query), new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				// null marks a failed prefetch, so that callers waiting for it retry within their own time
+				return retrievePropertyCandidates(_query, _resources, _queryResourceAsObject, _varTC, deadline) ? Boolean.TRUE : null;
+			}
+		}, deadline.getRemainingMillis());
+	}
+	
+	/**
+	 * Executes the given batched property candidate query and adds the results to the property
+	 * candidate cache. Returns <code>false</code> if the query failed.
+	 * 
+	 * @see KnowledgeBaseConnector#prefetchPropertyCandidates(Collection, TypeConstraint, Deadline)
+	 */
+	private boolean retrievePropertyCandidates(String query, Set<String> resources, boolean queryResourceAsObject, TypeConstraint varTC, Deadline deadline) {
+		// Resource -> candidates with the resource as subject / as object
+		Map<String, Collection<PropertyCandidate>> subjectCandidates = new HashMap<String, Collection<PropertyCandidate>>();
+		Map<String, Collection<PropertyCandidate>> objectCandidates = new HashMap<String, Collection<PropertyCandidate>>();
+		for (String resourceURI : resources) {
+			subjectCandidates.put(resourceURI, new LinkedList<PropertyCandidate>());
+			objectCandidates.put(resourceURI, new LinkedList<PropertyCandidate>());
+		}
+		QueryExecution qexec = null;
+		try {
+			qexec = getQueryExec(query, deadline);
+			ResultSet rs = qexec.execSelect();
+			while (rs.hasNext()) {
+				QuerySolution sol = rs.next();
+				Resource rRes = sol.getResource("r");
+				if (rRes == null) {
+					continue;
+				}
+				// Results contain full URIs, the cache is keyed by the (possibly prefixed) form used in the query
+				String resourceURI = getSPARQLResourceString(rRes.getURI());
+				if (!resources.contains(resourceURI)) {
+					continue;
+				}
+				boolean isSubject = "s".equals(sol.getLiteral("dir").getString());
+				Collection<PropertyCandidate> propCandidates = (isSubject ? subjectCandidates : objectCandidates).get(resourceURI);
+				PropertyCandidate pc = createPropertyCandidate(sol, true);
+				if (pc != null && propCandidates.size() < MAX_NUM_PROPERTY_CANDIDATES) {
+					propCandidates.add(pc);
+				}
+			}
+		} catch (Exception e) {
+			// getPropertyCandidates() will retrieve the candidates one by one
+			log.error("Error while executing query: \"" + query + "\": " + e.getMessage());
+			return false;
+		} finally {
+			if (qexec != null) {
+				qexec.close();
+			}
+		}
+		for (String resourceURI : resources) {
+			propCandidateCache.put(getPropCandidateCacheKey(resourceURI, null, null, varTC), subjectCandidates.get(resourceURI));
+			if (queryResourceAsObject) {
+				propCandidateCache.put(getPropCandidateCacheKey(null, resourceURI, varTC, null), objectCandidates.get(resourceURI));
+			}
+		}
+		return true;
+	}
 	
 	/**
 	 * Retrieves a list of property candidates for the given nameCandidates, resources and type
@@ -734,6 +1583,15 @@ public class KnowledgeBaseConnector {
 	 */
 	Collection<ComparablePair<MappedString, Float>> getPropertyCandidates(List<ComparablePair<MappedString, Float>> nameCandidates, String subjectURI, String objectURI,
 			                                                          TypeConstraint subjectTC, TypeConstraint objectTC) {
+		return getPropertyCandidates(nameCandidates, subjectURI, objectURI, subjectTC, objectTC, Deadline.NONE);
+	}
+	
+	/**
+	 * Retrieves a list of property candidates for the given nameCandidates, resources and type
+	 * constraints, querying the SPARQL endpoint only within the remaining time of the deadline
+	 */
+	Collection<ComparablePair<MappedString, Float>> getPropertyCandidates(List<ComparablePair<MappedString, Float>> nameCandidates, String subjectURI, String objectURI,
+			                                                          TypeConstraint subjectTC, TypeConstraint objectTC, Deadline deadline) {
 		// Literals on the subject side don't make sense
 		if (subjectTC != null && subjectTC.basicType == BasicType.Literal) {
 			return new LinkedList<ComparablePair<MappedString, Float>>();
@@ -744,62 +1602,24 @@ public class KnowledgeBaseConnector {
 		if (subjectURI == null && objectURI == null && !subjectHasClassConstraint && !objectHasClassConstraint) {
 			return new LinkedList<ComparablePair<MappedString, Float>>();
 		}
-		List<Object> cacheKey = Arrays.asList(subjectURI, objectURI, subjectTC, objectTC);
 		boolean useCountScore = true;//nameCandidates == null;// && subjectIsVar ^ objectIsVar;
 		
-		Collection<PropertyCandidate> propCandidates = propCandidateCache.get(cacheKey);
+		Collection<PropertyCandidate> propCandidates = getUnscoredPropertyCandidates(subjectURI, objectURI, subjectTC, objectTC, useCountScore, deadline);
 		if (propCandidates == null) {
-			propCandidates = new LinkedList<PropertyCandidate>();
-			propCandidateCache.put(cacheKey, propCandidates);
-			String querySubject = subjectURI == null ? "?s" : subjectURI;
-			String queryObject = objectURI == null ? "?o" : objectURI;
-			String query = "SELECT ?p ";
-			// Count number of property "connections" if we have no clue about the property
-			if (useCountScore) {
-				String countVar = subjectURI == null ? "?s" : "?o";
-				query += "(COUNT(" + countVar + ") AS ?count)";
-			}
-			query += " WHERE { ";
-			query += querySubject + " ?p " + queryObject + " . ";
-			query += getTypeConstraintSPARQLString(subjectTC, "s");
-			query += getTypeConstraintSPARQLString(objectTC, "o");
-			query += "}";
-			if (useCountScore) {
-				query += " GROUP BY ?p ORDER BY DESC(?count)";
-			}
-			query += " LIMIT 1000";
-			QueryExecution qexec = null;
-			ResultSet propPreCandidates;
-			try {
-				qexec = getQueryExec(query);
-				propPreCandidates = qexec.execSelect();
-			} catch (Exception e) {
-				log.error("Error while executing query: \"" + query + "\": " + e.getMessage());
-				return new LinkedList<ComparablePair<MappedString, Float>>();
-			}
-
-			while (propPreCandidates.hasNext()) {
-				QuerySolution sol = propPreCandidates.next();
-				Resource pRes = sol.getResource("p");
-				// Probably the result set is empty (but has one null entry with count 0)
-				if (pRes == null) {
-					break;
-				}
-				String pUri = pRes.getURI();
-				if (uriIsBlacklisted(pUri)) {
-					continue;
-				}
-				PropertyCandidate pc = new PropertyCandidate();
-				pc.uri = pUri;
-				pc.count = sol.getLiteral("count").getInt();
-				propCandidates.add(pc);
-			}
+			return new LinkedList<ComparablePair<MappedString, Float>>();
+		}
 
-			if (qexec != null) {
-				qexec.close();
+		Set<String> objectProperties = metadata.objectProperties;
+		WordPrefixMatcher nameMatcher = null;
+		if (nameCandidates != null && !nameCandidates.isEmpty()) {
+			List<String> candidateWords = new ArrayList<String>(nameCandidates.size());
+			for (ComparablePair<MappedString, Float> candidate : nameCandidates) {
+				candidateWords.add(candidate.key.value);
 			}
+			nameMatcher = new WordPrefixMatcher(candidateWords);
+			// Random access to candidates by matched index
+			nameCandidates = new ArrayList<ComparablePair<MappedString, Float>>(nameCandidates);
 		}
-
 		List<ComparablePair<MappedString, Float>> result = new LinkedList<ComparablePair<MappedString, Float>>();
 		for (PropertyCandidate pc : propCandidates) {
 			String pUri = pc.uri;
@@ -824,19 +1644,18 @@ public class KnowledgeBaseConnector {
 				propertyTypeScore = 1.01f;
 			}
 			
-			String pName = formatResourceName(getLocalName(pUri));
-			if (nameCandidates != null && !nameCandidates.isEmpty()) {
-				for (ComparablePair<MappedString, Float> candidate : nameCandidates) {
+			String pName = pc.name;
+			if (nameMatcher != null) {
+				// Same as testing StringUtil.hasPartStartingWith(pName, candidateWord) for each candidate
+				for (int i : nameMatcher.match(pName)) {
+					ComparablePair<MappedString, Float> candidate = nameCandidates.get(i);
 					String candidateWord = candidate.key.value;
-					if (StringUtil.hasPartStartingWith(pName, candidateWord)) {
-						float score = (float)candidateWord.length() / pName.length() * candidate.value * propertyTypeScore + countScoreBonus;
-						MappedString mappedPUri = new MappedString(pUriShortForm, candidate.key.trace);
-						mappedPUri.trace.add(new TraceElement(pUriShortForm + " (URI match)", pUri));
-						result.add(new ComparablePair<MappedString, Float>(mappedPUri, score));
-					}
+					float score = (float)candidateWord.length() / pName.length() * candidate.value * propertyTypeScore + countScoreBonus;
+					MappedString mappedPUri = new MappedString(pUriShortForm, candidate.key.trace.append(pUriShortForm, "URI match", pUri));
+					result.add(new ComparablePair<MappedString, Float>(mappedPUri, score));
 				}
 			} else {
-				MappedString mappedPUri = new MappedString(pUriShortForm, Arrays.asList(new TraceElement(pUriShortForm, pUri)));
+				MappedString mappedPUri = new MappedString(pUriShortForm, Trace.EMPTY.append(pUriShortForm, pUri));
 				result.add(new ComparablePair<MappedString, Float>(mappedPUri, propertyTypeScore + countScoreBonus));
 			}
 		}
@@ -848,7 +1667,43 @@ public class KnowledgeBaseConnector {
 		return result;
 	}
 	
-	public void close() {
+	private volatile boolean closed = false;
+	
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("KnowledgeBaseConnector for " + sparqlEndpoint + " has been closed");
+		}
+	}
+	
+	/**
+	 * Releases the TDB dataset, the label index and the connections to the SPARQL endpoint.
+	 * Queries fail afterwards, closing the connector again has no effect.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
 		log.info("Closing KB Connector. Number of queries: " + numQueries);
+		log.info(resourceCandidateCache);
+		log.info(propCandidateCache);
+		log.info(resultCache);
+		log.info(emptyResultCache);
+		log.info(resourceCandidateQueries);
+		log.info(propCandidateQueries);
+		log.info(propCandidatePrefetchQueries);
+		if (tdbDataset != null) {
+			tdbDataset.close();
+		}
+		if (askClient != null) {
+			askClient.getConnectionManager().shutdown();
+		}
+		if (labelIndex != null) {
+			try {
+				labelIndex.close();
+			} catch (IOException e) {
+				log.error("Failed to close label index", e);
+			}
+		}
 	}
 }
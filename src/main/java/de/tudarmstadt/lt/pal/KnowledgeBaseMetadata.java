@@ -0,0 +1,184 @@
+package de.tudarmstadt.lt.pal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tudarmstadt.lt.pal.util.StringUtil;
+
+/**
+ * Metadata about a knowledge base that is expensive to retrieve from the SPARQL endpoint (classes in use
+ * and object properties). Instances are never modified after construction, so that they can be shared
+ * between threads and replaced as a whole.<br/>
+ * Metadata can be stored in a compact binary snapshot file, which makes it possible to skip the
+ * retrieval from the SPARQL endpoint on startup.
+ */
+class KnowledgeBaseMetadata {
+	/**
+	 * Identifies PAL metadata snapshot files ("PALM")
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x50414c4d;
+	/**
+	 * Has to be increased whenever the snapshot format changes, snapshots
+	 * of different versions are ignored
+	 */
+	private static final int SNAPSHOT_VERSION = 1;
+
+	/**
+	 *  type URI -> number of entities with this type
+	 */
+	final Map<String, Integer> classesInUse;
+
+	/**
+	 * A set of all owl:ObjectProperties provided by the SPARQL endpoint
+	 */
+	final Set<String> objectProperties;
+
+	/**
+	 * type URI -> formatted type name, e.g. "european capital" for dbpedia-owl:EuropeanCapital
+	 * 
+	 * @see KnowledgeBaseConnector#getResourceName(String)
+	 */
+	final Map<String, String> classNames;
+
+	/**
+	 * word -> URIs of all types whose formatted name contains this word,
+	 * in the same order as the types in <code>classesInUse</code>
+	 */
+	final Map<String, List<String>> classNameIndex;
+
+	KnowledgeBaseMetadata(Map<String, Integer> classesInUse, Set<String> objectProperties) {
+		this.classesInUse = Collections.unmodifiableMap(classesInUse);
+		this.objectProperties = Collections.unmodifiableSet(objectProperties);
+		classNames = new HashMap<String, String>(classesInUse.size() * 2);
+		classNameIndex = new HashMap<String, List<String>>();
+		for (String typeUri : this.classesInUse.keySet()) {
+			String typeName = KnowledgeBaseConnector.getResourceName(typeUri);
+			classNames.put(typeUri, typeName);
+			for (String word : new LinkedHashSet<String>(Arrays.asList(typeName.split(" ")))) {
+				if (word.isEmpty()) {
+					continue;
+				}
+				List<String> typeUris = classNameIndex.get(word);
+				if (typeUris == null) {
+					typeUris = new ArrayList<String>(1);
+					classNameIndex.put(word, typeUris);
+				}
+				typeUris.add(typeUri);
+			}
+		}
+	}
+
+	/**
+	 * Returns the URIs of all types that may contain <code>name</code> as part of their formatted
+	 * name, i.e. a superset of the types for which {@link StringUtil#hasPart(String, String)} holds.
+	 */
+	Collection<String> getClassesWithNamePart(String name) {
+		for (String word : name.split(" ")) {
+			if (!word.isEmpty()) {
+				// Any matching type name must contain each word of name, so the first word is sufficient
+				List<String> typeUris = classNameIndex.get(word);
+				return typeUris != null ? typeUris : Collections.<String>emptyList();
+			}
+		}
+		return classesInUse.keySet();
+	}
+
+	/**
+	 * Returns the snapshot file for the given endpoint configuration in the specified directory
+	 */
+	static File getSnapshotFile(File dir, String sparqlEndpoint, Collection<String> graphUris) {
+		return new File(dir, "kb-metadata-" + StringUtil.sha1Hex(getSnapshotKey(sparqlEndpoint, graphUris)) + ".bin");
+	}
+
+	private static String getSnapshotKey(String sparqlEndpoint, Collection<String> graphUris) {
+		List<String> sortedGraphUris = new ArrayList<String>();
+		if (graphUris != null) {
+			sortedGraphUris.addAll(graphUris);
+		}
+		Collections.sort(sortedGraphUris);
+		return sparqlEndpoint + " " + sortedGraphUris;
+	}
+
+	/**
+	 * Writes this metadata to the specified snapshot file. The snapshot is first written to a temporary
+	 * file which then replaces the existing snapshot, so that readers never see an incomplete file.
+	 */
+	void writeSnapshot(File file, String sparqlEndpoint, Collection<String> graphUris) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		try {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeUTF(getSnapshotKey(sparqlEndpoint, graphUris));
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(classesInUse.size());
+			for (Map.Entry<String, Integer> entry : classesInUse.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+			out.writeInt(objectProperties.size());
+			for (String objectProperty : objectProperties) {
+				out.writeUTF(objectProperty);
+			}
+		} finally {
+			out.close();
+		}
+		// File.renameTo() does not replace existing files on all platforms
+		if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+			tmpFile.delete();
+			throw new IOException("Failed to replace snapshot file " + file);
+		}
+	}
+
+	/**
+	 * Reads metadata from the specified snapshot file
+	 *
+	 * @return The metadata, or <code>null</code> if the snapshot does not exist, has a different
+	 *         version or was created for a different endpoint configuration
+	 */
+	static KnowledgeBaseMetadata readSnapshot(File file, String sparqlEndpoint, Collection<String> graphUris) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION ||
+				!in.readUTF().equals(getSnapshotKey(sparqlEndpoint, graphUris))) {
+				return null;
+			}
+			in.readLong(); // creation time
+			int numClasses = in.readInt();
+			Map<String, Integer> classesInUse = new HashMap<String, Integer>(numClasses * 2);
+			for (int i = 0; i < numClasses; i++) {
+				String uri = in.readUTF();
+				classesInUse.put(uri, in.readInt());
+			}
+			int numObjectProperties = in.readInt();
+			Set<String> objectProperties = new HashSet<String>(numObjectProperties * 2);
+			for (int i = 0; i < numObjectProperties; i++) {
+				objectProperties.add(in.readUTF());
+			}
+			return new KnowledgeBaseMetadata(classesInUse, objectProperties);
+		} finally {
+			in.close();
+		}
+	}
+}
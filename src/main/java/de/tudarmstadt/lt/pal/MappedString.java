@@ -9,26 +9,129 @@ import java.util.List;
  */
 public class MappedString {
 	public String value;
-	public List<TraceElement> trace = new LinkedList<TraceElement>();
+	public Trace trace;
 	
-	public static class TraceElement {
+	/**
+	 * Creates a trace element when the trace is listed via {@link Trace#toList()}. Most traces are
+	 * never shown, so their elements can keep the raw parts (e.g. a WordNet word and the relation it
+	 * was found by) instead of building strings up front.
+	 */
+	public interface TraceElementSource {
+		TraceElement toTraceElement();
+	}
+	
+	public static class TraceElement implements TraceElementSource {
 		public String value;
 		public String url;
 		public TraceElement(String value, String url) {
 			this.value = value;
 			this.url = url;
 		}
+		@Override public TraceElement toTraceElement() { return this; }
 		@Override public String toString() { return value + " (" + url + ")"; }
 	}
 	
+	/**
+	 * Immutable derivation trace. Appending to a trace only links the new elements to the
+	 * existing trace, so that traces can be extended and shared without copying. The list of
+	 * trace elements is only built when an explanation is requested via {@link #toList()}.
+	 */
+	public static class Trace {
+		public static final Trace EMPTY = new Trace(null, null, null, 0);
+		
+		private final Trace prefix;
+		private final TraceElementSource element;
+		private final Trace suffix;
+		private final int size;
+		
+		private Trace(Trace prefix, TraceElementSource element, Trace suffix, int size) {
+			this.prefix = prefix;
+			this.element = element;
+			this.suffix = suffix;
+			this.size = size;
+		}
+		
+		public static Trace of(List<TraceElement> elements) {
+			Trace res = EMPTY;
+			for (TraceElement e : elements) {
+				res = res.append(e);
+			}
+			return res;
+		}
+		
+		public Trace append(TraceElementSource e) {
+			return new Trace(this, e, null, size + 1);
+		}
+		
+		public Trace append(String value, String url) {
+			return append(new TraceElement(value, url));
+		}
+		
+		/**
+		 * Appends the element <code>value (note)</code>, e.g. "dbpedia-owl:author (URI match)",
+		 * which is only concatenated when the trace is listed
+		 */
+		public Trace append(final String value, final String note, final String url) {
+			return append(new TraceElementSource() {
+				@Override
+				public TraceElement toTraceElement() {
+					return new TraceElement(value + " (" + note + ")", url);
+				}
+			});
+		}
+		
+		/**
+		 * Returns this trace followed by the given one
+		 */
+		public Trace append(Trace suffix) {
+			if (suffix.size == 0) {
+				return this;
+			} else if (size == 0) {
+				return suffix;
+			}
+			return new Trace(this, null, suffix, size + suffix.size);
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public List<TraceElement> toList() {
+			List<TraceElement> res = new LinkedList<TraceElement>();
+			addTo(res);
+			return res;
+		}
+		
+		private void addTo(List<TraceElement> res) {
+			if (prefix != null) {
+				prefix.addTo(res);
+			}
+			if (element != null) {
+				res.add(element.toTraceElement());
+			}
+			if (suffix != null) {
+				suffix.addTo(res);
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return toList().toString();
+		}
+	}
+	
 	public MappedString(String word) {
 		this.value = word;
-		trace.add(new TraceElement(word, ""));
+		this.trace = Trace.EMPTY.append(word, "");
 	}
 	
-	public MappedString(String word, List<TraceElement> trace) {
+	public MappedString(String word, Trace trace) {
 		this.value = word;
-		this.trace.addAll(trace);
+		this.trace = trace;
+	}
+	
+	public MappedString(String word, List<TraceElement> trace) {
+		this(word, Trace.of(trace));
 	}
 
 	@Override
@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.util.Collection;
 
 import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.Answer;
+import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.AnswerIterator;
 import de.tudarmstadt.lt.pal.stanford.StanfordDependencyParser;
 import de.tudarmstadt.lt.pal.stanford.StanfordPseudoQueryBuilder;
 import de.tudarmstadt.lt.pal.util.ComparablePair;
@@ -58,17 +59,63 @@ public class NLI {
 			e.printStackTrace();
 		}
 		
+		tripleMapper.close();
 		kb.close();
 	}
 	
+	/**
+	 * Minimum time for retrieving the answers of the chosen query, even if the deadline has passed
+	 * while mapping the question, so that the best query found so far still yields answers
+	 */
+	static final long MIN_ANSWER_RETRIEVAL_MILLIS = 1000;
+	
 	public Collection<Answer> run(String text) {
-		SemanticGraph dependencies = depParser.parse(text);
-		Query pseudoQuery = pseudoQueryBuilder.buildPseudoQuery(dependencies);
-		ComparablePair<Query, Float> scoredQuery = tripleMapper.getBestSPARQLQuery(pseudoQuery);
-		Query query = scoredQuery.key;
+		return run(text, Deadline.NONE);
+	}
+	
+	/**
+	 * Answers the question, limiting all SPARQL queries to the remaining time of the deadline.
+	 * If the deadline passes, the answers of the best query found so far are returned.
+	 */
+	public Collection<Answer> run(String text, Deadline deadline) {
+		Query query = getBestQuery(text, deadline);
 		if (query != null) {
-			return kb.query(query);
+			return kb.query(query, getAnswerRetrievalDeadline(deadline));
 		}
 		return null;
 	}
+	
+	public AnswerIterator runAnswers(String text) {
+		return runAnswers(text, Deadline.NONE);
+	}
+	
+	/**
+	 * Like {@link NLI#run(String, Deadline)}, but returns an iterator that retrieves the answers on
+	 * demand, so that callers that need only the first few answers can stop early. The iterator has
+	 * to be closed afterwards (which is done automatically once it is exhausted).
+	 */
+	public AnswerIterator runAnswers(String text, Deadline deadline) {
+		Query query = getBestQuery(text, deadline);
+		if (query != null) {
+			return kb.queryAnswers(query, getAnswerRetrievalDeadline(deadline));
+		}
+		return null;
+	}
+	
+	/**
+	 * Maps the question to the best SPARQL query found within the deadline, or <code>null</code>
+	 */
+	private Query getBestQuery(String text, Deadline deadline) {
+		SemanticGraph dependencies = depParser.parse(text);
+		Query pseudoQuery = pseudoQueryBuilder.buildPseudoQuery(dependencies);
+		ComparablePair<Query, Float> scoredQuery = tripleMapper.getBestSPARQLQuery(pseudoQuery, deadline);
+		return scoredQuery != null ? scoredQuery.key : null;
+	}
+	
+	private static Deadline getAnswerRetrievalDeadline(Deadline deadline) {
+		if (!deadline.isUnlimited() && deadline.getRemainingMillis() < MIN_ANSWER_RETRIEVAL_MILLIS) {
+			return new Deadline(MIN_ANSWER_RETRIEVAL_MILLIS);
+		}
+		return deadline;
+	}
 }
@@ -1,17 +1,26 @@
 package de.tudarmstadt.lt.pal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import de.tudarmstadt.lt.pal.Triple.Element;
+import de.tudarmstadt.lt.pal.Triple.TypeConstraint;
 import de.tudarmstadt.lt.pal.Triple.Variable;
+import de.tudarmstadt.lt.pal.util.ComparablePair;
 
 /**
  * A pseudo query is a collection of (unmapped) <code>SPARQLTriple</code>'s.<br/>
- * For convenience, it also contains a map of all variables used in the triples.
+ * For convenience, it also contains a map of all variables used in the triples.<br/>
+ * Query candidates generated by {@link QueryMapper} share unchanged variables and triples with
+ * each other and with their pseudo query, so they must not be modified.
  */
 public class Query {
 	public Collection<Triple> triples;
@@ -26,6 +35,28 @@ public class Query {
 		vars = new HashMap<String, Variable>();
 	}
 	
+	Query(Collection<Triple> triples, Map<String, Variable> vars, Variable focusVar) {
+		this.triples = triples;
+		this.vars = vars;
+		this.focusVar = focusVar;
+	}
+	
+	/**
+	 * Returns a copy of this query in which the variable with the same name as <code>var</code>
+	 * is replaced by <code>var</code>. Triples and variables that don't change are shared with
+	 * this query.
+	 */
+	public Query withVariable(Variable var) {
+		Map<String, Variable> _vars = new HashMap<String, Variable>(vars);
+		_vars.put(var.name, var);
+		Collection<Triple> _triples = new ArrayList<Triple>(triples.size());
+		for (Triple t : triples) {
+			_triples.add(t.withVariable(var));
+		}
+		Variable _focusVar = (focusVar != null && focusVar.name.equals(var.name)) ? var : focusVar;
+		return new Query(_triples, _vars, _focusVar);
+	}
+	
 	@Override
 	public Object clone() {
 		Query q = new Query();
@@ -70,13 +101,100 @@ public class Query {
 		return sb.toString();
 	}
 	
+	/**
+	 * Returns a canonical representation of the SPARQL query described by this query: triple
+	 * patterns and type constraints in sorted order, with variables renamed to <code>?v0</code>,
+	 * <code>?v1</code>, ... in order of their first occurrence, and the focus variable.<br/>
+	 * Queries that only differ in the order of their triples or the names of their variables
+	 * usually have the same canonical form. Ties between triples that only differ in their
+	 * variables are broken by their original order, so equivalent queries may (rarely) still
+	 * have different canonical forms. Queries with the same canonical form are always equivalent.
+	 */
+	public String getCanonicalForm() {
+		// (Stable) sort triples by their patterns without variable names
+		List<ComparablePair<Triple, String>> sortedTriples = new ArrayList<ComparablePair<Triple, String>>(triples.size());
+		for (Triple t : triples) {
+			String pattern = getCanonicalString(t.subject, null) + " " + getCanonicalString(t.predicate, null) + " " + getCanonicalString(t.object, null);
+			sortedTriples.add(new ComparablePair<Triple, String>(t, pattern));
+		}
+		Collections.sort(sortedTriples);
+		Map<String, String> varNames = new HashMap<String, String>();
+		for (ComparablePair<Triple, String> t : sortedTriples) {
+			for (Element e : Arrays.asList(t.key.subject, t.key.predicate, t.key.object)) {
+				if (e instanceof Variable && !varNames.containsKey(e.name)) {
+					varNames.put(e.name, "?v" + varNames.size());
+				}
+			}
+		}
+		// Variables that only have a type constraint
+		List<ComparablePair<String, String>> otherVars = new ArrayList<ComparablePair<String, String>>();
+		for (Variable var : vars.values()) {
+			if (!varNames.containsKey(var.name)) {
+				otherVars.add(new ComparablePair<String, String>(var.name, getCanonicalString(var, null)));
+			}
+		}
+		Collections.sort(otherVars);
+		for (ComparablePair<String, String> var : otherVars) {
+			varNames.put(var.key, "?v" + varNames.size());
+		}
+		
+		List<String> patterns = new ArrayList<String>();
+		for (Triple t : triples) {
+			patterns.add(getCanonicalString(t.subject, varNames) + " " + getCanonicalString(t.predicate, varNames) + " " + getCanonicalString(t.object, varNames) + " .");
+		}
+		for (Variable var : vars.values()) {
+			if (var.mappedType != null) {
+				patterns.add(varNames.get(var.name) + " a " + var.mappedType.basicType + " " + (var.mappedType.typeURI != null ? var.mappedType.typeURI.value : null) + " .");
+			}
+		}
+		Collections.sort(patterns);
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT ");
+		sb.append(focusVar != null && varNames.containsKey(focusVar.name) ? varNames.get(focusVar.name) : "*");
+		sb.append(" WHERE {");
+		for (String pattern : patterns) {
+			sb.append(" ");
+			sb.append(pattern);
+		}
+		sb.append(" }");
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns the canonical representation of a triple element. Variables are represented by
+	 * their new name, or by their type constraint if <code>varNames</code> is <code>null</code>.
+	 */
+	private String getCanonicalString(Element e, Map<String, String> varNames) {
+		if (e == null) {
+			return "[]";
+		} else if (e instanceof Variable) {
+			if (varNames != null) {
+				return varNames.get(e.name);
+			}
+			Variable var = vars.get(e.name);
+			TypeConstraint tc = var != null ? var.mappedType : ((Variable)e).mappedType;
+			return "?{" + (tc != null ? tc.basicType + " " + (tc.typeURI != null ? tc.typeURI.value : null) : "") + "}";
+		}
+		return e.sparqlString();
+	}
+	
+	@Override
+	public int hashCode() {
+		// Independent of the order of triples, like equals()
+		int result = 0;
+		for (Triple t : triples) {
+			result += t.hashCode();
+		}
+		return result;
+	}
+	
 	@Override
 	public boolean equals(Object other) {
-		Query otherPQ = (Query)other;
-		if (otherPQ == null) {
+		if (!(other instanceof Query)) {
 			return false;
 		}
+		Query otherPQ = (Query)other;
 		return triples.size() == otherPQ.triples.size() &&
-			   triples.containsAll(otherPQ.triples);
+			   new HashSet<Triple>(triples).equals(new HashSet<Triple>(otherPQ.triples));
 	}
 }
@@ -0,0 +1,194 @@
+package de.tudarmstadt.lt.pal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import de.tudarmstadt.lt.pal.util.ComparablePair;
+
+/**
+ * Lazily enumerates SPARQL query candidates in descending order of their score.<br/>
+ * Each query candidate combines a pseudo query variant (with mapped variable types) with one
+ * candidate for each of its triples. Instead of building the full cartesian product of all
+ * combinations, candidates are generated best-first from a priority queue, so that only
+ * candidates that are actually consumed (and their immediate successors) are ever built.<br/>
+ * Candidates with equal scores are returned in the same order as a stable sort of the full
+ * cartesian product would produce (variants in the order they were added, then combinations
+ * in lexicographic order of the triple candidates).
+ */
+class QueryCandidateEnumerator implements Iterator<ComparablePair<Query, Float>> {
+
+	/**
+	 * A pseudo query variant along with the candidates for each of its triples
+	 */
+	private static class Variant {
+		int index;
+		Query query;
+		float score;
+		/**
+		 * Triple candidates for each triple, sorted by descending score
+		 */
+		List<List<ComparablePair<Triple, Float>>> tripleCandidates;
+		/**
+		 * Position of each (sorted) triple candidate in the original candidate list
+		 */
+		List<int[]> originalIndices;
+	}
+
+	/**
+	 * A combination of triple candidates of one variant
+	 */
+	private static class State {
+		Variant variant;
+		/**
+		 * Index of the chosen candidate for each triple (in sorted order)
+		 */
+		int[] positions;
+		/**
+		 * Index of the chosen candidate for each triple (in original order), used to break ties
+		 */
+		int[] originalPositions;
+		/**
+		 * Position that was incremented to generate this state. Successors only increment positions
+		 * at or after this one, so that each combination is generated exactly once.
+		 */
+		int lastIncremented;
+		float score;
+	}
+
+	private static final Comparator<State> STATE_ORDER = new Comparator<State>() {
+		@Override
+		public int compare(State s1, State s2) {
+			int cmp = Float.compare(s2.score, s1.score);
+			if (cmp != 0) {
+				return cmp;
+			}
+			cmp = s1.variant.index - s2.variant.index;
+			if (cmp != 0) {
+				return cmp;
+			}
+			for (int i = 0; i < s1.originalPositions.length; i++) {
+				cmp = s1.originalPositions[i] - s2.originalPositions[i];
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+			return 0;
+		}
+	};
+
+	private final PriorityQueue<State> queue = new PriorityQueue<State>(16, STATE_ORDER);
+	private int numVariants = 0;
+	private int numGenerated = 0;
+
+	/**
+	 * Adds a pseudo query variant
+	 *
+	 * @param query Pseudo query with mapped variable types
+	 * @param score Score of the variant
+	 * @param tripleCandidates Candidates for each triple of the query (in the order of <code>query.triples</code>)
+	 */
+	void addVariant(Query query, float score, List<List<ComparablePair<Triple, Float>>> tripleCandidates) {
+		Variant v = new Variant();
+		v.index = numVariants++;
+		v.query = query;
+		v.score = score;
+		v.tripleCandidates = new ArrayList<List<ComparablePair<Triple, Float>>>(tripleCandidates.size());
+		v.originalIndices = new ArrayList<int[]>(tripleCandidates.size());
+		for (List<ComparablePair<Triple, Float>> candidates : tripleCandidates) {
+			// No candidates for one triple -> no query candidates at all
+			if (candidates.isEmpty()) {
+				return;
+			}
+			final List<ComparablePair<Triple, Float>> _candidates = new ArrayList<ComparablePair<Triple, Float>>(candidates);
+			Integer[] order = new Integer[_candidates.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			// Stable sort, equally scored candidates keep their original order
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return _candidates.get(i1).compareTo(_candidates.get(i2));
+				}
+			});
+			List<ComparablePair<Triple, Float>> sorted = new ArrayList<ComparablePair<Triple, Float>>(order.length);
+			int[] originalIndices = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				sorted.add(_candidates.get(order[i]));
+				originalIndices[i] = order[i];
+			}
+			v.tripleCandidates.add(sorted);
+			v.originalIndices.add(originalIndices);
+		}
+		queue.add(createState(v, new int[tripleCandidates.size()], 0));
+	}
+
+	private State createState(Variant v, int[] positions, int lastIncremented) {
+		State s = new State();
+		s.variant = v;
+		s.positions = positions;
+		s.lastIncremented = lastIncremented;
+		s.originalPositions = new int[positions.length];
+		// Multiply in the same order as when building the candidates triple by triple
+		float score = v.score;
+		for (int i = 0; i < positions.length; i++) {
+			score = score * v.tripleCandidates.get(i).get(positions[i]).value;
+			s.originalPositions[i] = v.originalIndices.get(i)[positions[i]];
+		}
+		s.score = score;
+		return s;
+	}
+
+	/**
+	 * Returns the number of query candidates that have been returned so far
+	 */
+	int getNumGenerated() {
+		return numGenerated;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !queue.isEmpty();
+	}
+
+	@Override
+	public ComparablePair<Query, Float> next() {
+		State s = queue.poll();
+		if (s == null) {
+			throw new NoSuchElementException();
+		}
+		Variant v = s.variant;
+		for (int i = s.lastIncremented; i < s.positions.length; i++) {
+			if (s.positions[i] + 1 < v.tripleCandidates.get(i).size()) {
+				int[] positions = s.positions.clone();
+				positions[i]++;
+				queue.add(createState(v, positions, i));
+			}
+		}
+		numGenerated++;
+		return new ComparablePair<Query, Float>(buildQuery(s), s.score);
+	}
+
+	/**
+	 * Builds the query candidate of a state. The candidate shares its variables and triples with
+	 * the variant and with other candidates.
+	 */
+	private Query buildQuery(State s) {
+		Query variant = s.variant.query;
+		List<Triple> triples = new ArrayList<Triple>(s.positions.length);
+		for (int i = 0; i < s.positions.length; i++) {
+			triples.add(s.variant.tripleCandidates.get(i).get(s.positions[i]).key);
+		}
+		return new Query(triples, variant.vars, variant.focusVar);
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
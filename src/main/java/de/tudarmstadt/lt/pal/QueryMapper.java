@@ -1,19 +1,30 @@
 package de.tudarmstadt.lt.pal;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
 import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.Answer;
+import de.tudarmstadt.lt.pal.MappedString.Trace;
 import de.tudarmstadt.lt.pal.MappedString.TraceElement;
 import de.tudarmstadt.lt.pal.Triple.Constant;
 import de.tudarmstadt.lt.pal.Triple.Element;
@@ -33,26 +44,83 @@ public class QueryMapper {
 	
 	Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
 	
+	/**
+	 * Default number of candidate queries that are evaluated concurrently
+	 * 
+	 * @see QueryMapper#getBestSPARQLQuery(Query)
+	 */
+	public static final int DEFAULT_NUM_PARALLEL_QUERIES = 8;
+	
+	/**
+	 * Number of candidate queries that are evaluated concurrently
+	 */
+	int numParallelQueries;
+	/**
+	 * Evaluates candidate queries. The pool is shared by all questions mapped by this instance,
+	 * i.e. concurrent questions compete for the same <code>numParallelQueries</code> threads
+	 * (superseded candidates are aborted, so they release their thread quickly).
+	 * 
+	 * @see QueryMapper#close()
+	 */
+	ExecutorService queryExecutor;
+	
 	public QueryMapper(KnowledgeBaseConnector kb) {
+		this(kb, DEFAULT_NUM_PARALLEL_QUERIES);
+	}
+	
+	/**
+	 * @param numParallelQueries Maximum number of candidate queries that are sent to the
+	 *                           knowledge base at the same time
+	 */
+	public QueryMapper(KnowledgeBaseConnector kb, int numParallelQueries) {
+		this(kb, numParallelQueries, false);
+	}
+	
+	/**
+	 * @param numParallelQueries Maximum number of candidate queries that are sent to the
+	 *                           knowledge base at the same time
+	 * @param wordNetInMemory Load WordNet entirely into memory, so that multiple questions can
+	 *                        be mapped concurrently without waiting for WordNet lookups
+	 * 
+	 * @see WordNetConnector#WordNetConnector(String, boolean)
+	 */
+	public QueryMapper(KnowledgeBaseConnector kb, int numParallelQueries, boolean wordNetInMemory) {
 		String wnHome = System.getenv("WNHOME");
 		if (wnHome == null) {
 			throw new IllegalArgumentException("WNHOME environment variable not set.");
 		} else if (!new File(wnHome).exists()) {
 			throw new IllegalArgumentException("WNHOME directory (" + wnHome + ") does not exist.");
 		}
-		wnc = new WordNetConnector(wnHome + "/dict");
+		wnc = new WordNetConnector(wnHome + "/dict", wordNetInMemory);
 		this.kb = kb;
+		this.numParallelQueries = Math.max(1, numParallelQueries);
+		queryExecutor = Executors.newFixedThreadPool(this.numParallelQueries, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				// Do not prevent the JVM from shutting down
+				Thread t = new Thread(r, "pal-query-candidate");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Stops the threads evaluating candidate queries. The mapper can't be used afterwards.
+	 */
+	public void close() {
+		queryExecutor.shutdownNow();
 	}
 	
 	/**
 	 * Maps a triple element to candidate resources
 	 */
-	private Collection<ComparablePair<MappedString, Float>> mapResource(Element e) {
+	private Collection<ComparablePair<MappedString, Float>> mapResource(Element e, Deadline deadline) {
 		List<ComparablePair<MappedString, Float>> candidates = null;
 		
 		if (e != null && e.isConstant()) {
 			int numCandidates = 5;
-			candidates = kb.getResourceCandidates(e.name, numCandidates);
+			candidates = kb.getResourceCandidates(e.name, numCandidates, deadline);
 		}
 		return candidates;
 	}
@@ -60,7 +128,7 @@ public class QueryMapper {
 	/**
 	 * Maps a triple predicate to ontology property candidates
 	 */
-	private Collection<ComparablePair<MappedString, Float>> mapProperty(Element p, String subjectURI, String objectURI, TypeConstraint subjectTC, TypeConstraint objectTC) {
+	private Collection<ComparablePair<MappedString, Float>> mapProperty(Element p, String subjectURI, String objectURI, TypeConstraint subjectTC, TypeConstraint objectTC, Deadline deadline) {
 		Map<MappedString, Float> synonyms = new HashMap<MappedString, Float>();
 		
 		if (p != null && p.isConstant()) {
@@ -72,9 +140,7 @@ public class QueryMapper {
 				nameLC = nameLC.substring(0, sepIndex);
 				wnc.addSynonyms(synonyms, wnc.getRelatedWords(nameLC, pos));
 			}
-			List<TraceElement> trace = new LinkedList<TraceElement>();
-			trace.add(new TraceElement(nameLC, ""));
-			wnc.addSynonym(synonyms, nameLC, trace, 1.0f);
+			wnc.addSynonym(synonyms, nameLC, Trace.EMPTY.append(nameLC, ""), 1.0f);
 		}
 		
 		List<ComparablePair<MappedString, Float>> nameCandidates = new LinkedList<ComparablePair<MappedString, Float>>();
@@ -88,7 +154,7 @@ public class QueryMapper {
 			nameCandidates = nameCandidates.subList(0, MAX_NUM_CANDIDATES);
 		}*/
 		
-		return kb.getPropertyCandidates(nameCandidates, subjectURI, objectURI, subjectTC, objectTC);
+		return kb.getPropertyCandidates(nameCandidates, subjectURI, objectURI, subjectTC, objectTC, deadline);
 	}
 	
 	/**
@@ -158,33 +224,156 @@ public class QueryMapper {
 	
 	/**
 	 * Generates a list of candidates SPARQL queries from the given pseudo query and returns the first
-	 * query that yields any results (the latter being a way of filtering out non-sense queries)
+	 * query that yields any results (the latter being a way of filtering out non-sense queries).
+	 * Candidates are only checked for the existence of results, the actual (labelled) results of
+	 * the returned query still have to be retrieved using {@link KnowledgeBaseConnector#query(Query)}.<br/>
+	 * Up to <code>numParallelQueries</code> candidates are evaluated speculatively at the same time,
+	 * but candidates are still accepted strictly in the order of their rank.
 	 */
 	public ComparablePair<Query, Float> getBestSPARQLQuery(Query pseudoQuery) {
-		List<ComparablePair<Query, Float>> queryCandidates = buildSPARQLQuery(pseudoQuery);
+		return getBestSPARQLQuery(pseudoQuery, Deadline.NONE);
+	}
+	
+	/**
+	 * Like {@link QueryMapper#getBestSPARQLQuery(Query)}, but all SPARQL queries are limited to the
+	 * remaining time of the deadline. If the deadline passes before the best-ranked non-empty
+	 * candidate is known, the best candidate found to be non-empty so far is returned (if any).
+	 */
+	public ComparablePair<Query, Float> getBestSPARQLQuery(Query pseudoQuery, Deadline deadline) {
+		QueryCandidateEnumerator queryCandidates = enumerateSPARQLQueries(pseudoQuery, deadline);
 		final int MAX_NUM_QUERY_CANDIDATES = 100;
-		if (queryCandidates.size() > MAX_NUM_QUERY_CANDIDATES) {
-			queryCandidates = queryCandidates.subList(0, MAX_NUM_QUERY_CANDIDATES);
+		ComparablePair<Query, Float> bestQuery = getFirstNonEmptyQuery(queryCandidates, MAX_NUM_QUERY_CANDIDATES, deadline);
+		log.debug("Generated " + queryCandidates.getNumGenerated() + " SPARQL query candidates");
+		return bestQuery;
+	}
+	
+	/**
+	 * A query candidate that is being evaluated asynchronously
+	 */
+	private static class PendingQuery {
+		ComparablePair<Query, Float> query;
+		Future<Boolean> hasResults;
+		/**
+		 * Fork of the request deadline the candidate's SPARQL execution is registered on, so that
+		 * it can be aborted on its own
+		 */
+		Deadline deadline;
+	}
+	
+	/**
+	 * Returns the first candidate (in iteration order) that yields any results, evaluating up to
+	 * <code>numParallelQueries</code> candidates concurrently. The SPARQL executions of lower-ranked
+	 * candidates that are still being evaluated are aborted as soon as a better-ranked candidate has
+	 * been accepted, candidates that haven't been started yet are skipped.
+	 * Candidates that are equivalent to a previous candidate (see {@link Query#getCanonicalForm()})
+	 * are skipped.<br/>
+	 * Once the deadline has passed, no further candidates are evaluated, all running evaluations are
+	 * aborted and the first candidate (in iteration order) that is already known to yield results is
+	 * returned.
+	 * 
+	 * @param maxNumCandidates Maximum number of distinct candidates that are evaluated
+	 */
+	ComparablePair<Query, Float> getFirstNonEmptyQuery(Iterator<ComparablePair<Query, Float>> candidates, int maxNumCandidates, final Deadline deadline) {
+		LinkedList<PendingQuery> pending = new LinkedList<PendingQuery>();
+		Set<String> canonicalForms = new HashSet<String>();
+		int numCandidates = 0;
+		try {
+			while (!pending.isEmpty() || (numCandidates < maxNumCandidates && candidates.hasNext())) {
+				while (pending.size() < numParallelQueries && numCandidates < maxNumCandidates && !deadline.isExpired() && candidates.hasNext()) {
+					final ComparablePair<Query, Float> candidate = candidates.next();
+					// e.g. the same property matched by multiple synonyms, which would only repeat
+					// the same query with a lower score
+					if (!canonicalForms.add(candidate.key.getCanonicalForm())) {
+						continue;
+					}
+					numCandidates++;
+					final PendingQuery p = new PendingQuery();
+					p.query = candidate;
+					p.deadline = deadline.fork();
+					p.hasResults = queryExecutor.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return kb.hasResults(candidate.key, p.deadline);
+						}
+					});
+					pending.add(p);
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				PendingQuery best = pending.getFirst();
+				try {
+					boolean hasResults;
+					if (deadline.isUnlimited()) {
+						hasResults = best.hasResults.get();
+					} else {
+						hasResults = best.hasResults.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+					}
+					pending.removeFirst();
+					if (hasResults) {
+						return best.query;
+					}
+				} catch (ExecutionException e) {
+					pending.removeFirst();
+					log.error("Failed to evaluate query candidate " + best.query.key, e.getCause());
+				} catch (TimeoutException e) {
+					log.warn("Deadline exceeded after evaluating " + numCandidates + " query candidates");
+					return getFirstCompletedNonEmptyQuery(pending);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// Interrupting the evaluations wouldn't stop remote executions and breaks local (TDB) reads
+			for (PendingQuery p : pending) {
+				p.hasResults.cancel(false);
+				p.deadline.abort();
+			}
 		}
-		log.debug("=================================================================");
-		log.debug("Generated " + queryCandidates.size() + " SPARQL query candidates:");
-		log.debug(queryCandidates);
-		log.debug("=================================================================");
-		for (ComparablePair<Query, Float> query : queryCandidates) {
-			Collection<Answer> answer = kb.query(query.key);
-			if (!answer.isEmpty()) {
-				return query;
+		return null;
+	}
+	
+	/**
+	 * Returns the first of the given candidates whose evaluation has already completed with results,
+	 * or <code>null</code> if there is none
+	 */
+	private ComparablePair<Query, Float> getFirstCompletedNonEmptyQuery(List<PendingQuery> pending) {
+		for (PendingQuery p : pending) {
+			if (p.hasResults.isDone() && !p.hasResults.isCancelled()) {
+				try {
+					if (p.hasResults.get()) {
+						return p.query;
+					}
+				} catch (Exception e) {
+					// Failed candidates are skipped, same as above
+				}
 			}
 		}
 		return null;
 	}
 	
 	/**
-	 * Generates candidates SPARQL queries from a specified pseudo query
+	 * Generates candidates SPARQL queries from a specified pseudo query, sorted by descending score
 	 */
 	public List<ComparablePair<Query, Float>> buildSPARQLQuery(Query pseudoQuery) {
 		List<ComparablePair<Query, Float>> queryCandidates = new LinkedList<ComparablePair<Query, Float>>();
-		queryCandidates.add(new ComparablePair<Query, Float>(pseudoQuery, 1.0f));
+		Iterator<ComparablePair<Query, Float>> it = enumerateSPARQLQueries(pseudoQuery, Deadline.NONE);
+		while (it.hasNext()) {
+			queryCandidates.add(it.next());
+		}
+		return queryCandidates;
+	}
+	
+	/**
+	 * Lazily enumerates candidate SPARQL queries from a specified pseudo query in descending
+	 * order of their score. Once the deadline has passed, no further pseudo query variants are
+	 * mapped, i.e. only the candidates of the variants mapped so far are enumerated.
+	 */
+	QueryCandidateEnumerator enumerateSPARQLQueries(Query pseudoQuery, Deadline deadline) {
+		List<ComparablePair<Query, Float>> queryCandidates = new LinkedList<ComparablePair<Query, Float>>();
+		// Copy once, so that all triples refer to the variables in pseudoQuery.vars
+		// (variants and candidates below share the unchanged parts of this copy)
+		queryCandidates.add(new ComparablePair<Query, Float>((Query)pseudoQuery.clone(), 1.0f));
 		
 		// penalty for one missing type constraint
 		final float NO_TYPE_CONSTRAINT_PENALTY = 0.1f;
@@ -206,12 +395,11 @@ public class QueryMapper {
 			tcs.add(null); // also consider no type constraint (convenient for processing in loop)
 			for (ComparablePair<TypeConstraint, Float> tc : tcs) {
 				for (ComparablePair<Query, Float> q : queryCandidates) {
-					Query _q = (Query)q.key.clone();
-					Variable var = _q.vars.get(varName);
+					Query _q = q.key;
 					float score = NO_TYPE_CONSTRAINT_PENALTY;
 					if (tc != null) {
 						score = q.value * tc.value;
-						var.mappedType = tc.key;
+						_q = _q.withVariable(_q.vars.get(varName).withMappedType(tc.key));
 					}
 					if (score > NO_TYPE_CONSTRAINT_AT_ALL_PENALTY) {
 						_queryCandidates.add(new ComparablePair<Query, Float>(_q, score));
@@ -227,58 +415,65 @@ public class QueryMapper {
 		log.debug(queryCandidates);
 		log.debug("=================================================================");
 
-		List<ComparablePair<Query, Float>> _queryCandidates = new LinkedList<ComparablePair<Query, Float>>();
+		QueryCandidateEnumerator enumerator = new QueryCandidateEnumerator();
 		for (ComparablePair<Query, Float> q : queryCandidates) {
-			_queryCandidates.addAll(_buildSPARQLQuery(q));
-		}
-		
-		Collections.sort(_queryCandidates);
-		
-		return _queryCandidates;
-	}
-	
-	private List<ComparablePair<Query, Float>> _buildSPARQLQuery(ComparablePair<Query, Float> scoredPseudoQuery) {
-		Query pseudoQuery = scoredPseudoQuery.key;
-		List<ComparablePair<Query, Float>> queryCandidates = new LinkedList<ComparablePair<Query, Float>>();
-		Query _baseQuery = (Query)pseudoQuery.clone();
-		_baseQuery.triples.clear();
-		// Add an empty "seed" query
-		queryCandidates.add(new ComparablePair<Query, Float>(_baseQuery, scoredPseudoQuery.value));
-		
-		for (Triple t : pseudoQuery.triples) {
-			List<ComparablePair<Query, Float>> updatedQueryCandidates = new LinkedList<ComparablePair<Query, Float>>();
-			for (ComparablePair<Query, Float> baseQuery : queryCandidates) {
+			if (deadline.isExpired()) {
+				log.warn("Deadline exceeded while mapping pseudo query variants");
+				break;
+			}
+			Query variant = q.key;
+			List<List<ComparablePair<Triple, Float>>> tripleCandidates = new ArrayList<List<ComparablePair<Triple, Float>>>();
+			for (Triple t : variant.triples) {
+				prefetchPropertyCandidates(t, deadline);
 				List<ComparablePair<Triple, Float>> tripleQueryCandidates = new LinkedList<ComparablePair<Triple, Float>>();
 				Triple tSwapped = new Triple(t.object, t.predicate, t.subject);
-				tripleQueryCandidates.addAll(buildSPARQLTriple(t, pseudoQuery));
-				tripleQueryCandidates.addAll(buildSPARQLTriple(tSwapped, pseudoQuery));
-				for (ComparablePair<Triple, Float> tripleQueryEntry : tripleQueryCandidates) {
-					Triple tripleQuery = tripleQueryEntry.key;
-					float score = baseQuery.value * tripleQueryEntry.value;
-					Query query = (Query)baseQuery.key.clone();
-					query.triples.add(tripleQuery);
-					updatedQueryCandidates.add(new ComparablePair<Query, Float>(query, score));
-				}
+				tripleQueryCandidates.addAll(buildSPARQLTriple(t, variant, deadline));
+				tripleQueryCandidates.addAll(buildSPARQLTriple(tSwapped, variant, deadline));
+				tripleCandidates.add(tripleQueryCandidates);
 			}
-			queryCandidates = updatedQueryCandidates;
+			enumerator.addVariant(variant, q.value, tripleCandidates);
 		}
-		// Sort in ascending order by score
-		Collections.sort(queryCandidates);
-		
-		return queryCandidates;
+		return enumerator;
+	}
+	
+	/**
+	 * Retrieves the property candidates of all resource candidates of a triple between a
+	 * resource and a variable with a single query, for the triple and its swapped form
+	 */
+	private void prefetchPropertyCandidates(Triple triple, Deadline deadline) {
+		Element resource;
+		Variable var;
+		if (triple.subject instanceof Variable && triple.object != null && triple.object.isConstant()) {
+			var = (Variable)triple.subject;
+			resource = triple.object;
+		} else if (triple.object instanceof Variable && triple.subject != null && triple.subject.isConstant()) {
+			var = (Variable)triple.object;
+			resource = triple.subject;
+		} else {
+			return;
+		}
+		Collection<ComparablePair<MappedString, Float>> resourceCandidates = mapResource(resource, deadline);
+		if (resourceCandidates == null || resourceCandidates.isEmpty()) {
+			return;
+		}
+		List<String> resourceURIs = new ArrayList<String>(resourceCandidates.size());
+		for (ComparablePair<MappedString, Float> r : resourceCandidates) {
+			resourceURIs.add(r.key.value);
+		}
+		kb.prefetchPropertyCandidates(resourceURIs, var.mappedType, deadline);
 	}
 	
 	/**
 	 * Maps a pseudo triple to a list of candidate SPARQL triples
 	 */
-	List<ComparablePair<Triple, Float>> buildSPARQLTriple(Triple triple, Query query) {
+	List<ComparablePair<Triple, Float>> buildSPARQLTriple(Triple triple, Query query, Deadline deadline) {
 		List<ComparablePair<Triple, Float>> res = new LinkedList<ComparablePair<Triple, Float>>();
 
 		// Try at least N resources (or more if the first N resources do not yield any property matches)
 		int minNumResourcesToTry = 3;
 		int numResourcesTried = 0;
-		Collection<ComparablePair<MappedString, Float>> subjectCandidates = mapResource(triple.subject);
-		Collection<ComparablePair<MappedString, Float>> objectCandidates = mapResource(triple.object);
+		Collection<ComparablePair<MappedString, Float>> subjectCandidates = mapResource(triple.subject, deadline);
+		Collection<ComparablePair<MappedString, Float>> objectCandidates = mapResource(triple.object, deadline);
 		Variable subjectVar = (triple.subject instanceof Variable) ? (Variable)triple.subject : null;
 		Variable objectVar = (triple.object instanceof Variable) ? (Variable)triple.object : null;
 		
@@ -287,7 +482,7 @@ public class QueryMapper {
 				MappedString subject = scoredSubject.key;
 				// Only returns type constraint != null if object is a variable and has been assigned a type constraint
 
-				Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, subject.value, null, null, objectVar.mappedType);
+				Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, subject.value, null, null, objectVar.mappedType, deadline);
 //				System.out.println("prop candidates: " + propCandidates);
 				for (ComparablePair<MappedString, Float> scoredProp : propCandidates) {
 					String prop = scoredProp.key.value;
@@ -309,7 +504,7 @@ public class QueryMapper {
 			for (ComparablePair<MappedString, Float> scoredObject : objectCandidates) {
 				MappedString object = scoredObject.key;
 
-				Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, null, object.value, subjectVar.mappedType, null);
+				Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, null, object.value, subjectVar.mappedType, null, deadline);
 //				System.out.println("prop candidates: " + propCandidates);
 				for (ComparablePair<MappedString, Float> scoredProp : propCandidates) {
 					String prop = scoredProp.key.value;
@@ -329,7 +524,7 @@ public class QueryMapper {
 			}
 		// Relations between two variables
 		} else if (subjectVar != null && objectVar != null && triple.predicate != null) {
-			Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, null, null, subjectVar.mappedType, objectVar.mappedType);
+			Collection<ComparablePair<MappedString, Float>> propCandidates = mapProperty(triple.predicate, null, null, subjectVar.mappedType, objectVar.mappedType, deadline);
 //			System.out.println("prop candidates: " + propCandidates);
 			for (ComparablePair<MappedString, Float> scoredProp : propCandidates) {
 				String prop = scoredProp.key.value;
@@ -1,9 +1,6 @@
 package de.tudarmstadt.lt.pal;
 
-import java.util.Arrays;
-import java.util.List;
-
-import de.tudarmstadt.lt.pal.MappedString.TraceElement;
+import de.tudarmstadt.lt.pal.MappedString.Trace;
 
 
 /**
@@ -14,7 +11,7 @@ public class Triple implements Cloneable {
 	
 	public static abstract class Element implements Cloneable {
 		public String name;
-		public List<TraceElement> trace;
+		public Trace trace;
 		
 		public abstract boolean isConstant();
 		
@@ -61,6 +58,34 @@ public class Triple implements Cloneable {
 		public String toString() {
 			return typeURI + " (" + basicType + ")";
 		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((basicType == null) ? 0 : basicType.name().hashCode());
+			result = prime * result + ((typeURI == null) ? 0 : typeURI.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			TypeConstraint other = (TypeConstraint) obj;
+			if (basicType != other.basicType)
+				return false;
+			if (typeURI == null) {
+				if (other.typeURI != null)
+					return false;
+			} else if (!typeURI.equals(other.typeURI))
+				return false;
+			return true;
+		}
 	}
 	
 	/**
@@ -79,6 +104,37 @@ public class Triple implements Cloneable {
 		public boolean isConstant() {
 			return true;
 		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((name == null) ? 0 : name.hashCode());
+			result = prime * result + ((type == null) ? 0 : type.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Constant other = (Constant) obj;
+			if (name == null) {
+				if (other.name != null)
+					return false;
+			} else if (!name.equals(other.name))
+				return false;
+			if (type == null) {
+				if (other.type != null)
+					return false;
+			} else if (!type.equals(other.type))
+				return false;
+			return true;
+		}
 	}
 	
 	/**
@@ -101,7 +157,16 @@ public class Triple implements Cloneable {
 			this.name = name;
 			this.unmappedType = unmappedType;
 			// A variable name does not have a real derivation trace
-			this.trace = Arrays.asList(new TraceElement(name, ""));
+			this.trace = Trace.EMPTY.append(name, "");
+		}
+		
+		/**
+		 * Returns a copy of this variable with the given type constraint
+		 */
+		public Variable withMappedType(TypeConstraint mappedType) {
+			Variable v = (Variable)clone();
+			v.mappedType = mappedType;
+			return v;
 		}
 		
 		@Override
@@ -118,6 +183,40 @@ public class Triple implements Cloneable {
 		public String toString() {
 			return "?" + name + " (" + unmappedType + ", " + mappedType + ")";
 		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((name == null) ? 0 : name.hashCode());
+			result = prime * result + ((unmappedType == null) ? 0 : unmappedType.name().hashCode());
+			result = prime * result + ((mappedType == null) ? 0 : mappedType.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Variable other = (Variable) obj;
+			if (name == null) {
+				if (other.name != null)
+					return false;
+			} else if (!name.equals(other.name))
+				return false;
+			if (unmappedType != other.unmappedType)
+				return false;
+			if (mappedType == null) {
+				if (other.mappedType != null)
+					return false;
+			} else if (!mappedType.equals(other.mappedType))
+				return false;
+			return true;
+		}
 	}
 	
 	public Element subject;
@@ -130,10 +229,61 @@ public class Triple implements Cloneable {
 		object = o;
 	}
 	
+	/**
+	 * Returns this triple with all occurrences of the variable with the same name as
+	 * <code>var</code> replaced by <code>var</code>, or this triple itself if it doesn't contain
+	 * that variable
+	 */
+	public Triple withVariable(Variable var) {
+		boolean replaceSubject = subject instanceof Variable && subject.name.equals(var.name);
+		boolean replaceObject = object instanceof Variable && object.name.equals(var.name);
+		if (!replaceSubject && !replaceObject) {
+			return this;
+		}
+		return new Triple(replaceSubject ? var : subject, predicate, replaceObject ? var : object);
+	}
+	
 	/**
 	 * Produces a human-readable representation of this triple. Not meant for SPARQL etc.
 	 */
 	public String toString() {
 		return "[Subject: " + subject + "] [Predicate: " + predicate + "] [Object: " + object + "]";
 	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((subject == null) ? 0 : subject.hashCode());
+		result = prime * result + ((predicate == null) ? 0 : predicate.hashCode());
+		result = prime * result + ((object == null) ? 0 : object.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Triple other = (Triple) obj;
+		if (subject == null) {
+			if (other.subject != null)
+				return false;
+		} else if (!subject.equals(other.subject))
+			return false;
+		if (predicate == null) {
+			if (other.predicate != null)
+				return false;
+		} else if (!predicate.equals(other.predicate))
+			return false;
+		if (object == null) {
+			if (other.object != null)
+				return false;
+		} else if (!object.equals(other.object))
+			return false;
+		return true;
+	}
 }
\ No newline at end of file
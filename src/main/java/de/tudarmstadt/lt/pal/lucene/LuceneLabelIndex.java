@@ -0,0 +1,237 @@
+package de.tudarmstadt.lt.pal.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+import com.hp.hpl.jena.graph.Node;
+
+import de.tudarmstadt.lt.pal.KnowledgeBaseConnector;
+
+/**
+ * Local full-text index of English resource labels (<code>rdfs:label</code> and <code>foaf:name</code>),
+ * which can be used instead of the text search of the SPARQL endpoint to look up resources by name.<br/>
+ * The index is built once, either from an RDF dump or from a SPARQL endpoint (see {@link #main(String[])}),
+ * and is safe to be searched from multiple threads.
+ */
+public class LuceneLabelIndex {
+	static final Version LUCENE_VERSION = Version.LUCENE_46;
+	static final String URI_FIELD = "uri";
+	static final String LABEL_FIELD = "label";
+	static final String TEXT_FIELD = "text";
+
+	static final String RDFS_LABEL = "http://www.w3.org/2000/01/rdf-schema#label";
+	static final String FOAF_NAME = "http://xmlns.com/foaf/0.1/name";
+
+	static Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
+
+	/**
+	 * A resource URI along with one of its labels
+	 */
+	public static class Label {
+		public String uri;
+		public String label;
+		public Label(String uri, String label) {
+			this.uri = uri;
+			this.label = label;
+		}
+		@Override public String toString() { return uri + " (" + label + ")"; }
+	}
+
+	Analyzer analyzer = createAnalyzer();
+	Directory directory;
+	IndexSearcher searcher;
+
+	/**
+	 * Opens an existing label index for searching
+	 */
+	public LuceneLabelIndex(File dir) throws IOException {
+		directory = FSDirectory.open(dir);
+		searcher = new IndexSearcher(DirectoryReader.open(directory));
+		log.info("Opened label index " + dir + " with " + searcher.getIndexReader().numDocs() + " labels");
+	}
+
+	static Analyzer createAnalyzer() {
+		// No stop words, they are often part of names (e.g. "The Who")
+		return new StandardAnalyzer(LUCENE_VERSION, CharArraySet.EMPTY_SET);
+	}
+
+	/**
+	 * Returns up to <code>limit</code> labels containing all words of <code>text</code> as phrase
+	 */
+	public List<Label> search(String text, int limit) {
+		List<String> tokens = tokenize(text);
+		PhraseQuery query = new PhraseQuery();
+		for (String token : tokens) {
+			query.add(new Term(TEXT_FIELD, token));
+		}
+		return search(query, tokens, limit);
+	}
+
+	/**
+	 * Returns up to <code>limit</code> labels containing all words of <code>text</code>, where the
+	 * last word may also be the prefix of a word in the label (e.g. "dan bro" matches "Dan Brown")
+	 */
+	public List<Label> searchPrefix(String text, int limit) {
+		List<String> tokens = tokenize(text);
+		BooleanQuery query = new BooleanQuery();
+		for (int i = 0; i < tokens.size(); i++) {
+			Term term = new Term(TEXT_FIELD, tokens.get(i));
+			if (i == tokens.size() - 1) {
+				query.add(new PrefixQuery(term), Occur.MUST);
+			} else {
+				query.add(new TermQuery(term), Occur.MUST);
+			}
+		}
+		return search(query, tokens, limit);
+	}
+
+	private List<Label> search(org.apache.lucene.search.Query query, List<String> tokens, int limit) {
+		List<Label> res = new LinkedList<Label>();
+		if (tokens.isEmpty()) {
+			return res;
+		}
+		try {
+			for (ScoreDoc sd : searcher.search(query, limit).scoreDocs) {
+				Document doc = searcher.doc(sd.doc);
+				res.add(new Label(doc.get(URI_FIELD), doc.get(LABEL_FIELD)));
+			}
+		} catch (IOException e) {
+			log.error("Failed to search label index for \"" + query + "\": ", e);
+		}
+		return res;
+	}
+
+	List<String> tokenize(String text) {
+		List<String> tokens = new LinkedList<String>();
+		try {
+			TokenStream ts = analyzer.tokenStream(TEXT_FIELD, new StringReader(text));
+			CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+			ts.reset();
+			while (ts.incrementToken()) {
+				tokens.add(term.toString());
+			}
+			ts.end();
+			ts.close();
+		} catch (IOException e) {
+			// Cannot happen when reading from a string
+			throw new RuntimeException(e);
+		}
+		return tokens;
+	}
+
+	public void close() throws IOException {
+		searcher.getIndexReader().close();
+		directory.close();
+	}
+
+	/**
+	 * Creates a new label index, replacing any existing index in the same directory
+	 */
+	public static class Writer {
+		IndexWriter writer;
+		int numLabels = 0;
+
+		public Writer(File dir) throws IOException {
+			IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, createAnalyzer());
+			config.setOpenMode(OpenMode.CREATE);
+			writer = new IndexWriter(FSDirectory.open(dir), config);
+		}
+
+		public void addLabel(String uri, String label) throws IOException {
+			Document doc = new Document();
+			doc.add(new StringField(URI_FIELD, uri, Store.YES));
+			doc.add(new StoredField(LABEL_FIELD, label));
+			doc.add(new TextField(TEXT_FIELD, label, Store.NO));
+			writer.addDocument(doc);
+			numLabels++;
+			if (numLabels % 1000000 == 0) {
+				log.info("Indexed " + numLabels + " labels");
+			}
+		}
+
+		public void close() throws IOException {
+			log.info("Indexed " + numLabels + " labels, optimizing index");
+			writer.forceMerge(1);
+			writer.close();
+		}
+	}
+
+	/**
+	 * Adds all English labels from the specified RDF dump file (any format supported by Jena)
+	 */
+	public static void indexDump(final Writer writer, String file) {
+		RDFDataMgr.parse(new StreamRDFBase() {
+			@Override
+			public void triple(com.hp.hpl.jena.graph.Triple t) {
+				Node p = t.getPredicate();
+				Node o = t.getObject();
+				if (!t.getSubject().isURI() || !p.isURI() || !o.isLiteral() ||
+					!p.getURI().equals(RDFS_LABEL) && !p.getURI().equals(FOAF_NAME)) {
+					return;
+				}
+				String lang = o.getLiteralLanguage();
+				if (lang.isEmpty() || lang.toLowerCase().startsWith("en")) {
+					try {
+						writer.addLabel(t.getSubject().getURI(), o.getLiteralLexicalForm());
+					} catch (IOException e) {
+						throw new RuntimeException("Failed to add label to index", e);
+					}
+				}
+			}
+		}, file);
+	}
+
+	/**
+	 * Builds a label index.<br/>
+	 * Usage: <code>LuceneLabelIndex &lt;index dir&gt; &lt;endpoint .properties file | RDF dump file&gt;...</code>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: LuceneLabelIndex <index dir> <endpoint .properties file | RDF dump file>...");
+			System.exit(1);
+		}
+		Writer writer = new Writer(new File(args[0]));
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].endsWith(".properties")) {
+				KnowledgeBaseConnector kb = new KnowledgeBaseConnector(args[i]);
+				kb.retrieveLabels(writer);
+				kb.close();
+			} else {
+				indexDump(writer, args[i]);
+			}
+		}
+		writer.close();
+	}
+}
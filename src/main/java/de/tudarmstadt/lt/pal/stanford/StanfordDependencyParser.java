@@ -3,13 +3,17 @@ package de.tudarmstadt.lt.pal.stanford;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -21,94 +25,154 @@ import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.CollapsedDependenc
 import edu.stanford.nlp.util.CoreMap;
 
 /**
- * Interface to stanford dependency parser, capable of using file-based parse caching
+ * Interface to stanford dependency parser, capable of using a persistent parse cache
+ * (see {@link StanfordParseCache}).<br/>
+ * Sentences are parsed concurrently by a pool of CoreNLP pipelines, which are created lazily
+ * when needed. All pipelines share the same annotators (and thus the loaded models) via
+ * CoreNLP's static annotator pool.
  */
 public class StanfordDependencyParser {
+	public static final String DEFAULT_PROFILE = "pcfg";
+	static final String PROFILE_DIR = "parser_profiles/";
+	
+	String profile;
 	Properties props;
-	StanfordCoreNLP pipeline = null;
-	File tmpDir;
+	String parserConfig;
+	StanfordParseCache cache = null;
+	
+	/**
+	 * Maximum number of pipelines, i.e. of sentences that are parsed concurrently
+	 */
+	int poolSize;
+	/**
+	 * Pipelines that are currently not in use
+	 */
+	BlockingQueue<StanfordCoreNLP> idlePipelines = new LinkedBlockingQueue<StanfordCoreNLP>();
+	AtomicInteger numPipelines = new AtomicInteger(0);
+	AtomicInteger numPipelinesInUse = new AtomicInteger(0);
+	AtomicInteger numParses = new AtomicInteger(0);
+	/**
+	 * Total time spent waiting for a free pipeline (in nanoseconds)
+	 */
+	AtomicLong waitTime = new AtomicLong(0);
 	
 	Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
 	
 	public StanfordDependencyParser() {
-		tmpDir = null;
-		props = new Properties();
-//		props.put("annotators", "tokenize, ssplit, pos, lemma, ner, parse, dcoref");
-		props.put("annotators", "tokenize, ssplit, pos, lemma, parse");
+		this(Runtime.getRuntime().availableProcessors());
 	}
 	
 	/**
-	 * @param tmpDir Temporary directory for parse tree cache
+	 * @param poolSize Maximum number of sentences that are parsed concurrently
 	 */
-	/*public StanfordDependencyParser(String tmpDir) {
-		this.tmpDir = new File(tmpDir);
-		props = new Properties();
-//		props.put("annotators", "tokenize, ssplit, pos, lemma, ner, parse, dcoref");
-		props.put("annotators", "tokenize, ssplit, pos, lemma, parse");
-	}*/
+	public StanfordDependencyParser(int poolSize) {
+		this(DEFAULT_PROFILE, null, poolSize);
+	}
 	
 	/**
-	 * Get the file in the cache directory representing a given sentence
+	 * @param cacheDir Directory for the persistent parse tree cache
 	 */
-	private File getCacheFile(String sentence) {
-		int hash = Math.abs(sentence.hashCode());
-		if (tmpDir != null) {
-			return new File(tmpDir, Integer.toHexString(hash));
-		} else {
-			return null;
-		}
+	public StanfordDependencyParser(String cacheDir) {
+		this(DEFAULT_PROFILE, cacheDir, Runtime.getRuntime().availableProcessors());
 	}
 	
 	/**
-	 * Serializes a given dependency tree to a specific cache file
+	 * @param cacheDir Directory for the persistent parse tree cache
+	 * @param poolSize Maximum number of sentences that are parsed concurrently
 	 */
-	private void writeTree(SemanticGraph tree, File cacheFile) {
-		try {
-			ObjectOutputStream o = new ObjectOutputStream(new FileOutputStream(cacheFile));
-			o.writeObject(tree);
-			o.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	public StanfordDependencyParser(String cacheDir, int poolSize) {
+		this(DEFAULT_PROFILE, cacheDir, poolSize);
+	}
+	
+	/**
+	 * @param profile Name of the parser profile (see {@link #loadProfile(String)})
+	 * @param cacheDir Directory for the persistent parse tree cache, or <code>null</code> to disable caching
+	 * @param poolSize Maximum number of sentences that are parsed concurrently
+	 */
+	public StanfordDependencyParser(String profile, String cacheDir, int poolSize) {
+		this.profile = profile;
+		this.poolSize = Math.max(1, poolSize);
+		props = loadProfile(profile);
+		parserConfig = getParserConfig();
+		if (cacheDir != null) {
+			try {
+				cache = new StanfordParseCache(new File(cacheDir));
+			} catch (IOException e) {
+				log.error("Failed to open parse cache in " + cacheDir + ", parse trees will not be cached", e);
+			}
 		}
 	}
-
+	
 	/**
-	 * Deserializes a dependency tree from a specific cache file
+	 * Loads the CoreNLP properties of a parser profile. Predefined profiles are
+	 * <code>pcfg</code> (default) and <code>shift-reduce</code> (faster, requires the
+	 * shift-reduce parser model on the classpath). Alternatively, the path of a
+	 * .properties file with CoreNLP settings may be specified.
 	 */
-	private SemanticGraph readTree(File cacheFile) {
-		SemanticGraph tree = null;
+	public static Properties loadProfile(String profile) {
+		Properties props = new Properties();
 		try {
-			ObjectInputStream i = new ObjectInputStream(new FileInputStream(cacheFile));
-			Object object = i.readObject();
-			if (object instanceof SemanticGraph) {
-				tree = (SemanticGraph)object;
+			InputStream is;
+			if (new File(profile).isFile()) {
+				is = new FileInputStream(profile);
+			} else {
+				is = StanfordDependencyParser.class.getClassLoader().getResourceAsStream(PROFILE_DIR + profile + ".properties");
+				if (is == null) {
+					throw new IllegalArgumentException("Unknown parser profile: " + profile);
+				}
 			}
-			i.close();
+			props.load(is);
+			is.close();
 		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+			throw new IllegalArgumentException("Failed to load parser profile " + profile, e);
+		}
+		String parseModel = props.getProperty("parse.model");
+		if (parseModel != null && !new File(parseModel).exists() &&
+			StanfordDependencyParser.class.getClassLoader().getResource(parseModel) == null) {
+			throw new IllegalArgumentException("Parser model " + parseModel + " of profile " + profile + " not found");
+		}
+		return props;
+	}
+	
+	public String getProfile() {
+		return profile;
+	}
+	
+	/**
+	 * Returns a string describing the parser configuration, which is part of the parse cache key
+	 */
+	private String getParserConfig() {
+		List<String> config = new ArrayList<String>();
+		for (String name : props.stringPropertyNames()) {
+			config.add(name + "=" + props.getProperty(name));
 		}
-		return tree;
+		Collections.sort(config);
+		return config.toString();
 	}
 	
 	/**
 	 * Parse the given sentence and return a collapsed dependency tree
 	 */
 	public SemanticGraph parse(String sentence) {
-		File cacheFile = getCacheFile(sentence);
-		if (cacheFile != null && cacheFile.exists()) {
-			return readTree(cacheFile);
+		String cacheKey = null;
+		if (cache != null) {
+			cacheKey = StanfordParseCache.getKey(sentence, parserConfig);
+			SemanticGraph cachedTree = cache.get(cacheKey);
+			if (cachedTree != null) {
+				return cachedTree;
+			}
 		}
 		Annotation document = new Annotation(sentence);
-		synchronized(this) {
-			if (pipeline == null) {
-				pipeline = new StanfordCoreNLP(props);
-			}
+		StanfordCoreNLP pipeline = acquirePipeline();
+		if (pipeline == null) {
+			return null;
 		}
-		synchronized(pipeline) {
+		try {
 			pipeline.annotate(document);
+		} finally {
+			releasePipeline(pipeline);
 		}
+		numParses.incrementAndGet();
 		List<CoreMap> sentences = document.get(SentencesAnnotation.class);
 		
 		if (sentences == null || sentences.isEmpty()) {
@@ -118,8 +182,8 @@ public class StanfordDependencyParser {
 		CoreMap firstSentence = sentences.get(0);
 		SemanticGraph dependencies = firstSentence.get(CollapsedDependenciesAnnotation.class);
 		
-		if (cacheFile != null) {
-			writeTree(dependencies, cacheFile);
+		if (cache != null && dependencies != null) {
+			cache.put(cacheKey, dependencies);
 		}
 		
 		log.debug("Dependency parse tree for sentence \"" + sentence + "\":");
@@ -128,10 +192,93 @@ public class StanfordDependencyParser {
 		return dependencies;
 	}
 	
-	public void runInteractive() {
-		if (pipeline == null) {
-			pipeline = new StanfordCoreNLP(props);
+	/**
+	 * Takes a pipeline from the pool, creating a new one if all pipelines are in use and the pool
+	 * is not full yet. Otherwise waits until another thread releases its pipeline.
+	 * 
+	 * @return The pipeline, or <code>null</code> if the current thread has been interrupted
+	 */
+	private StanfordCoreNLP acquirePipeline() {
+		long startTime = System.nanoTime();
+		StanfordCoreNLP pipeline = idlePipelines.poll();
+		while (pipeline == null) {
+			int n = numPipelines.get();
+			if (n < poolSize) {
+				if (numPipelines.compareAndSet(n, n + 1)) {
+					log.info("Creating parser pipeline " + (n + 1) + "/" + poolSize);
+					try {
+						pipeline = new StanfordCoreNLP(props);
+					} catch (RuntimeException e) {
+						numPipelines.decrementAndGet();
+						throw e;
+					}
+				}
+			} else {
+				try {
+					pipeline = idlePipelines.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
 		}
+		waitTime.addAndGet(System.nanoTime() - startTime);
+		numPipelinesInUse.incrementAndGet();
+		return pipeline;
+	}
+	
+	private void releasePipeline(StanfordCoreNLP pipeline) {
+		numPipelinesInUse.decrementAndGet();
+		idlePipelines.add(pipeline);
+	}
+	
+	/**
+	 * Returns the maximum number of pipelines
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+	
+	/**
+	 * Returns the number of pipelines that have been created so far
+	 */
+	public int getNumPipelines() {
+		return numPipelines.get();
+	}
+	
+	/**
+	 * Returns the number of pipelines that are currently parsing a sentence
+	 */
+	public int getNumPipelinesInUse() {
+		return numPipelinesInUse.get();
+	}
+	
+	/**
+	 * Returns the number of sentences that have been parsed (not counting cached parses)
+	 */
+	public int getNumParses() {
+		return numParses.get();
+	}
+	
+	/**
+	 * Returns the total time spent waiting for a pipeline in milliseconds (including the time
+	 * for creating new pipelines)
+	 */
+	public long getTotalWaitTimeMillis() {
+		return waitTime.get() / 1000000;
+	}
+	
+	@Override
+	public String toString() {
+		int n = numParses.get();
+		return "Parser pool [profile: " + profile + ", pipelines: " + numPipelines.get() + "/" + poolSize + ", in use: " + numPipelinesInUse.get() +
+				", parses: " + n + ", total wait time: " + getTotalWaitTimeMillis() + " ms" +
+				", avg. wait time: " + (n == 0 ? 0 : getTotalWaitTimeMillis() / n) + " ms]";
+	}
+	
+	public void runInteractive() {
+		// Load models before the first question
+		releasePipeline(acquirePipeline());
 		
 		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 
@@ -154,7 +301,11 @@ public class StanfordDependencyParser {
 		}
 	}
 
+	/**
+	 * Usage: <code>StanfordDependencyParser [parser profile]</code>
+	 */
 	public static void main(String[] args) {
-		new StanfordDependencyParser().runInteractive();
+		String profile = args.length > 0 ? args[0] : DEFAULT_PROFILE;
+		new StanfordDependencyParser(profile, null, 1).runInteractive();
 	}
 }
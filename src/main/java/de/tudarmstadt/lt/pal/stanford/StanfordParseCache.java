@@ -0,0 +1,266 @@
+package de.tudarmstadt.lt.pal.stanford;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import de.tudarmstadt.lt.pal.util.StringUtil;
+import edu.stanford.nlp.ling.CoreAnnotations.CopyAnnotation;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.GrammaticalRelation.Language;
+
+/**
+ * Persistent cache of dependency trees.<br/>
+ * Trees are keyed by the SHA-1 hash of the normalized sentence and the parser configuration, and
+ * are stored in a compact binary encoding (tokens and typed edges) in a single append-only file.
+ * The offsets of all entries are read into memory when the cache is opened, so that a lookup
+ * only needs to read the requested entry.
+ */
+public class StanfordParseCache {
+	/**
+	 * Identifies PAL parse cache files ("PALP")
+	 */
+	private static final int FILE_MAGIC = 0x50414c50;
+	/**
+	 * Has to be increased whenever the encoding changes, files of a different version are discarded
+	 */
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_LENGTH = 8;
+
+	static Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
+
+	private final File file;
+	private final RandomAccessFile data;
+	/**
+	 * Key -> offset of the encoded tree in the cache file
+	 */
+	private final Map<String, Long> index = new HashMap<String, Long>();
+
+	/**
+	 * Opens the cache file in the given directory, creating it if it doesn't exist yet
+	 */
+	public StanfordParseCache(File dir) throws IOException {
+		dir.mkdirs();
+		file = new File(dir, "parses.bin");
+		data = new RandomAccessFile(file, "rw");
+		if (data.length() < HEADER_LENGTH || data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+			if (data.length() > 0) {
+				log.warn("Discarding parse cache " + file + " with unknown format");
+			}
+			data.setLength(0);
+			data.writeInt(FILE_MAGIC);
+			data.writeInt(FILE_VERSION);
+		} else {
+			readIndex();
+		}
+		log.info("Opened parse cache " + file + " with " + index.size() + " entries");
+	}
+
+	/**
+	 * Record layout: key (UTF), tree length (int), encoded tree
+	 */
+	private void readIndex() throws IOException {
+		long offset = HEADER_LENGTH;
+		long length = data.length();
+		try {
+			while (offset < length) {
+				data.seek(offset);
+				String key = data.readUTF();
+				int treeLength = data.readInt();
+				long treeOffset = data.getFilePointer();
+				if (treeOffset + treeLength > length) {
+					break;
+				}
+				index.put(key, treeOffset - 4);
+				offset = treeOffset + treeLength;
+			}
+		} catch (EOFException e) {
+			// Incomplete last record, handled below
+		}
+		if (offset < length) {
+			// Probably the process was killed while writing the last entry
+			log.warn("Truncating incomplete entry at the end of parse cache " + file);
+			data.setLength(offset);
+		}
+	}
+
+	/**
+	 * Returns the cache key for a sentence parsed with the given parser configuration
+	 */
+	public static String getKey(String sentence, String parserConfig) {
+		String normalizedSentence = sentence.trim().replaceAll("\\s+", " ");
+		return StringUtil.sha1Hex(parserConfig + "\n" + normalizedSentence);
+	}
+
+	/**
+	 * Returns the cached tree for the given key, or <code>null</code> if there is none
+	 */
+	public synchronized SemanticGraph get(String key) {
+		Long offset = index.get(key);
+		if (offset == null) {
+			return null;
+		}
+		try {
+			data.seek(offset);
+			byte[] encodedTree = new byte[data.readInt()];
+			data.readFully(encodedTree);
+			return decode(encodedTree);
+		} catch (IOException e) {
+			log.error("Failed to read parse cache entry " + key, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Appends a tree to the cache
+	 */
+	public synchronized void put(String key, SemanticGraph tree) {
+		if (index.containsKey(key)) {
+			return;
+		}
+		try {
+			byte[] encodedTree = encode(tree);
+			long offset = data.length();
+			ByteArrayOutputStream record = new ByteArrayOutputStream(encodedTree.length + 64);
+			DataOutputStream out = new DataOutputStream(record);
+			out.writeUTF(key);
+			out.writeInt(encodedTree.length);
+			out.write(encodedTree);
+			out.close();
+			data.seek(offset);
+			data.write(record.toByteArray());
+			index.put(key, offset + record.size() - encodedTree.length - 4);
+		} catch (IOException e) {
+			log.error("Failed to write parse cache entry " + key, e);
+		}
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	public synchronized void close() throws IOException {
+		data.close();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Encodes a tree as list of tokens (vertices), typed edges between them and roots
+	 */
+	static byte[] encode(SemanticGraph tree) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		// Keep the original order of vertices and edges, as it determines the order in which
+		// children are returned by the decoded tree
+		Collection<IndexedWord> vertices = tree.vertexSet();
+		Map<IndexedWord, Integer> vertexIds = new HashMap<IndexedWord, Integer>();
+		out.writeInt(vertices.size());
+		for (IndexedWord w : vertices) {
+			vertexIds.put(w, vertexIds.size());
+			out.writeInt(w.index());
+			out.writeInt(w.sentIndex());
+			Integer copyCount = w.get(CopyAnnotation.class);
+			out.writeInt(copyCount != null ? copyCount : -1);
+			writeString(out, w.docID());
+			writeString(out, w.word());
+			writeString(out, w.value());
+			writeString(out, w.tag());
+			writeString(out, w.lemma());
+			writeString(out, w.originalText());
+			out.writeInt(w.beginPosition());
+			out.writeInt(w.endPosition());
+		}
+		out.writeInt(tree.edgeCount());
+		for (SemanticGraphEdge e : tree.edgeIterable()) {
+			out.writeInt(vertexIds.get(e.getGovernor()));
+			out.writeInt(vertexIds.get(e.getDependent()));
+			out.writeUTF(e.getRelation().toString());
+			out.writeDouble(e.getWeight());
+			out.writeBoolean(e.isExtra());
+		}
+		Collection<IndexedWord> roots = tree.getRoots();
+		out.writeInt(roots.size());
+		for (IndexedWord root : roots) {
+			out.writeInt(vertexIds.get(root));
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static SemanticGraph decode(byte[] encodedTree) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedTree));
+		SemanticGraph tree = new SemanticGraph();
+		int numVertices = in.readInt();
+		List<IndexedWord> vertices = new ArrayList<IndexedWord>(numVertices);
+		for (int i = 0; i < numVertices; i++) {
+			IndexedWord w = new IndexedWord();
+			w.setIndex(in.readInt());
+			int sentIndex = in.readInt();
+			if (sentIndex >= 0) {
+				w.setSentIndex(sentIndex);
+			}
+			int copyCount = in.readInt();
+			if (copyCount >= 0) {
+				w.set(CopyAnnotation.class, copyCount);
+			}
+			String docID = readString(in);
+			if (docID != null) {
+				w.setDocID(docID);
+			}
+			w.setWord(readString(in));
+			w.setValue(readString(in));
+			w.setTag(readString(in));
+			w.setLemma(readString(in));
+			w.setOriginalText(readString(in));
+			int beginPosition = in.readInt();
+			int endPosition = in.readInt();
+			if (beginPosition >= 0) {
+				w.setBeginPosition(beginPosition);
+			}
+			if (endPosition >= 0) {
+				w.setEndPosition(endPosition);
+			}
+			vertices.add(w);
+			tree.addVertex(w);
+		}
+		int numEdges = in.readInt();
+		for (int i = 0; i < numEdges; i++) {
+			IndexedWord gov = vertices.get(in.readInt());
+			IndexedWord dep = vertices.get(in.readInt());
+			GrammaticalRelation relation = GrammaticalRelation.valueOf(Language.English, in.readUTF());
+			tree.addEdge(gov, dep, relation, in.readDouble(), in.readBoolean());
+		}
+		int numRoots = in.readInt();
+		List<IndexedWord> roots = new ArrayList<IndexedWord>(numRoots);
+		for (int i = 0; i < numRoots; i++) {
+			roots.add(vertices.get(in.readInt()));
+		}
+		tree.setRoots(roots);
+		return tree;
+	}
+}
@@ -14,6 +14,7 @@ import de.tudarmstadt.lt.pal.Triple.Constant;
 import de.tudarmstadt.lt.pal.Triple.Element;
 import de.tudarmstadt.lt.pal.Triple.Variable;
 import de.tudarmstadt.lt.pal.Triple.Variable.Type;
+import de.tudarmstadt.lt.pal.stanford.StanfordTripleExtractor.Extraction;
 import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphEdge;
@@ -22,8 +23,9 @@ import edu.stanford.nlp.semgraph.SemanticGraphEdge;
  * Builds pseudo queries using stanford dependency trees.
  */
 public class StanfordPseudoQueryBuilder {
-	StanfordTripleExtractor tripleExtactor = new StanfordTripleExtractor();
-	Set<String> ignoredWords = new HashSet<String>();
+	// Both are never modified after construction, so that pseudo queries can be built concurrently
+	final StanfordTripleExtractor tripleExtactor = new StanfordTripleExtractor();
+	final Set<String> ignoredWords = new HashSet<String>();
 	Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
 	
 	public StanfordPseudoQueryBuilder() {
@@ -37,10 +39,10 @@ public class StanfordPseudoQueryBuilder {
 	/**
 	 * Build a pseudo query from the given dependency tree
 	 */
-	public synchronized Query buildPseudoQuery(SemanticGraph dependencies) {
-		// extractTriples() will add focus words to passed focusWords set
-		Set<StanfordTriple> triples = tripleExtactor.extractTriples(dependencies);
-		Map<IndexedWord, IndexedWord> typeConstraints = tripleExtactor.typeConstraints;
+	public Query buildPseudoQuery(SemanticGraph dependencies) {
+		Extraction extraction = tripleExtactor.extractTriples(dependencies);
+		Set<StanfordTriple> triples = extraction.getTriples();
+		Map<IndexedWord, IndexedWord> typeConstraints = extraction.getTypeConstraints();
 		Map<IndexedWord, Variable> variables = new HashMap<IndexedWord, Variable>();
 		List<Triple> queryTriples = new LinkedList<Triple>();
 		for (StanfordTriple t : triples) {
@@ -49,7 +51,7 @@ public class StanfordPseudoQueryBuilder {
 			Element object = nodeToSPARQLElement(dependencies, t.object, variables, typeConstraints, false);
 			queryTriples.add(new Triple(subject, predicate, object));
 		}
-		Variable focusVariable = variables.get(tripleExtactor.getFocusWord());
+		Variable focusVariable = variables.get(extraction.getFocusWord());
 
 		Map<String, Variable> vars = new HashMap<String, Variable>();
 		for (IndexedWord var : variables.keySet()) {
@@ -9,6 +9,7 @@ import java.util.Set;
 
 import de.tudarmstadt.lt.pal.util.DependencyPatternParser;
 import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyPattern;
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyPatternIndex;
 import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphEdge;
@@ -21,43 +22,57 @@ import edu.stanford.nlp.trees.GrammaticalRelation;
  * any mapping between natural language and actual ontology elements.
  */
 public class StanfordTripleExtractor {
-	Collection<DependencyPattern> patterns;
-	Collection<DependencyPattern> focusPatterns;
-	Collection<DependencyPattern> typePatterns;
-	Map<IndexedWord, IndexedWord> typeConstraints;
+	/**
+	 * Result of the triple extraction from a single dependency tree. All state of an extraction
+	 * is kept here, so that one extractor can be used by multiple threads at the same time.
+	 */
+	public static class Extraction {
+		SemanticGraph deps;
+		IndexedWord focusWord = null;
+		Set<StanfordTriple> triples = new HashSet<StanfordTriple>();
+		Map<IndexedWord, IndexedWord> typeConstraints = new HashMap<IndexedWord, IndexedWord>();
+		
+		Extraction(SemanticGraph deps) {
+			this.deps = deps;
+		}
+		
+		public Set<StanfordTriple> getTriples() { return triples; }
+		public IndexedWord getFocusWord() { return focusWord; }
+		/**
+		 * Returns a map of (word -> type word) pairs
+		 */
+		public Map<IndexedWord, IndexedWord> getTypeConstraints() { return typeConstraints; }
+	}
+	
+	// Patterns are never modified after construction
+	final DependencyPatternIndex patterns;
+	final DependencyPatternIndex focusPatterns;
+	final DependencyPatternIndex typePatterns;
 	
 	public StanfordTripleExtractor() {
 		InputStream depPatternsIS = getClass().getClassLoader().getResourceAsStream("dep_patterns.txt");
 		InputStream focusPatternsIS = getClass().getClassLoader().getResourceAsStream("focus_patterns.txt");
 		InputStream typePatternsIS = getClass().getClassLoader().getResourceAsStream("type_patterns.txt");
-		patterns = DependencyPatternParser.parse(depPatternsIS);
-		focusPatterns = DependencyPatternParser.parse(focusPatternsIS);
-		typePatterns = DependencyPatternParser.parse(typePatternsIS);
+		patterns = new DependencyPatternIndex(DependencyPatternParser.parse(depPatternsIS));
+		focusPatterns = new DependencyPatternIndex(DependencyPatternParser.parse(focusPatternsIS));
+		typePatterns = new DependencyPatternIndex(DependencyPatternParser.parse(typePatternsIS));
 	}
 	
 	/**
-	 * Builds StanfordTriple's consisting of nodes from a stanford dependency tree (as opposed to SPARQLTriples)
+	 * Builds StanfordTriple's consisting of nodes from a stanford dependency tree (as opposed to SPARQLTriples),
+	 * along with the focus word and type constraints found in the tree
 	 */
-	public Set<StanfordTriple> extractTriples(SemanticGraph deps) {
-		this.deps = deps;
-		focusWord = null;
-		triples = new HashSet<StanfordTriple>();
-		typeConstraints = new HashMap<IndexedWord, IndexedWord>();
+	public Extraction extractTriples(SemanticGraph deps) {
+		Extraction e = new Extraction(deps);
 		IndexedWord root = deps.getFirstRoot();
 		try {
-			handleNode(root, 0);
-		} catch (DependencyTreeTooDeepException e) {
+			handleNode(e, root, 0);
+		} catch (DependencyTreeTooDeepException ex) {
 			System.err.println("Error: Dependency tree is either too deep or contains infinite loop!");
 		}
-		return triples;
+		return e;
 	}
 	
-	private SemanticGraph deps;
-	private IndexedWord focusWord;
-	private Set<StanfordTriple> triples;
-	
-	public IndexedWord getFocusWord() { return focusWord; }
-	
 	// prevent possible infinite loops
 	private final static int MAX_NODE_DEPTH = 10;
 	
@@ -65,7 +80,8 @@ public class StanfordTripleExtractor {
 	 * Recursively collect triples over dependency graph
 	 * @throws DependencyTreeTooDeepException 
 	 */
-	private void handleNode(IndexedWord y, int depth) throws DependencyTreeTooDeepException {
+	private void handleNode(Extraction e, IndexedWord y, int depth) throws DependencyTreeTooDeepException {
+		SemanticGraph deps = e.deps;
 		if (depth > MAX_NODE_DEPTH) {
 			throw new DependencyTreeTooDeepException();
 		}
@@ -87,7 +103,7 @@ public class StanfordTripleExtractor {
 			if (z.index() == y.index()) {
 				continue;
 			}
-			handleNode(z, depth + 1);
+			handleNode(e, z, depth + 1);
 			if (ignoreWord(y) || ignoreWord(z)) {
 				continue;
 			}
@@ -95,7 +111,7 @@ public class StanfordTripleExtractor {
 			SemanticGraphEdge edge = deps.getAllEdges(y, z).get(0);
 			GrammaticalRelation rel = edge.getRelation();
 			
-			for (DependencyPattern depPattern : patterns) {
+			for (DependencyPattern depPattern : patterns.getCandidates(rel)) {
 				if (depPattern.matches(rel, x, y, z)) {
 					if (depPattern.isAntiPattern()) {
 						break; // Skips x->y->z triple altogether
@@ -107,18 +123,18 @@ public class StanfordTripleExtractor {
 				}
 			}
 			
-			for (DependencyPattern focusPattern : focusPatterns) {
+			for (DependencyPattern focusPattern : focusPatterns.getCandidates(rel)) {
 				if (focusPattern.matches(rel, x, y, z)) {
-					focusWord = focusPattern.mapTripleElement(null, focusPattern.subjectMapping, rel, x, y, z);
+					e.focusWord = focusPattern.mapTripleElement(null, focusPattern.subjectMapping, rel, x, y, z);
 					break;
 				}
 			}
 			
-			for (DependencyPattern typePattern : typePatterns) {
+			for (DependencyPattern typePattern : typePatterns.getCandidates(rel)) {
 				if (typePattern.matches(rel, x, y, z)) {
 					IndexedWord word = typePattern.mapTripleElement(null, typePattern.subjectMapping, rel, x, y, z);
 					IndexedWord type = typePattern.mapTripleElement(null, typePattern.predicateMapping, rel, x, y, z);
-					typeConstraints.put(word, type);
+					e.typeConstraints.put(word, type);
 					break;
 				}
 			}
@@ -128,7 +144,7 @@ public class StanfordTripleExtractor {
 			// Wildcard predicates will later be replaced by a specific predicate, e.g.
 			// the most common predicate between the subject and the object.
 			if (subject != null && object != null) {
-				triples.add(new StanfordTriple(subject, predicate, object));
+				e.triples.add(new StanfordTriple(subject, predicate, object));
 			}
 		}
 	}
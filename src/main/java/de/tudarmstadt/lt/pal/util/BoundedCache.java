@@ -0,0 +1,156 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe cache with least-recently-used eviction. The cache is bounded by the total weight
+ * of its entries, which by default is simply the number of entries. Entries may optionally
+ * expire after a fixed time-to-live.<br/>
+ * Hits, misses, evictions and expirations are counted for monitoring purposes.
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * Determines the weight of a cache entry, e.g. its approximate size in bytes
+	 */
+	public interface Weigher<K, V> {
+		int weigh(K key, V value);
+	}
+
+	private static class CacheEntry<V> {
+		V value;
+		int weight;
+		long expirationTime;
+	}
+
+	private final String name;
+	private final long maxWeight;
+	private final long ttlMillis;
+	private final Weigher<K, V> weigher;
+
+	// Iteration order of an access-ordered LinkedHashMap is least-recently accessed first
+	private final LinkedHashMap<K, CacheEntry<V>> entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true);
+	private long weight = 0;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+	private long expirationCount = 0;
+
+	/**
+	 * @param name Name of this cache (used for logging only)
+	 * @param maxSize Maximum number of entries
+	 * @param ttlMillis Time in milliseconds after which entries expire, or 0 if entries never expire
+	 */
+	public BoundedCache(String name, long maxSize, long ttlMillis) {
+		this(name, maxSize, ttlMillis, null);
+	}
+
+	/**
+	 * @param name Name of this cache (used for logging only)
+	 * @param maxWeight Maximum total weight of all entries
+	 * @param ttlMillis Time in milliseconds after which entries expire, or 0 if entries never expire
+	 * @param weigher Determines the weight of each entry, or <code>null</code> to assign a weight of 1 to every entry
+	 */
+	public BoundedCache(String name, long maxWeight, long ttlMillis, Weigher<K, V> weigher) {
+		this.name = name;
+		this.maxWeight = maxWeight;
+		this.ttlMillis = ttlMillis;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Returns the cached value for the given key, or <code>null</code> if there is no such
+	 * value or it has expired
+	 */
+	public synchronized V get(K key) {
+		CacheEntry<V> entry = entries.get(key);
+		if (entry != null && ttlMillis > 0 && System.currentTimeMillis() > entry.expirationTime) {
+			entries.remove(key);
+			weight -= entry.weight;
+			expirationCount++;
+			entry = null;
+		}
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.value;
+	}
+
+	/**
+	 * Adds a value to the cache, evicting the least-recently used entries if necessary
+	 */
+	public synchronized void put(K key, V value) {
+		CacheEntry<V> entry = new CacheEntry<V>();
+		entry.value = value;
+		entry.weight = weigher != null ? weigher.weigh(key, value) : 1;
+		if (ttlMillis > 0) {
+			entry.expirationTime = System.currentTimeMillis() + ttlMillis;
+		}
+		CacheEntry<V> previous = entries.remove(key);
+		if (previous != null) {
+			weight -= previous.weight;
+		}
+		// Entries that would not even fit into an empty cache are not cached at all
+		if (entry.weight > maxWeight) {
+			return;
+		}
+		entries.put(key, entry);
+		weight += entry.weight;
+		Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator();
+		while (weight > maxWeight && it.hasNext()) {
+			CacheEntry<V> eldest = it.next().getValue();
+			it.remove();
+			weight -= eldest.weight;
+			evictionCount++;
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the total weight of all entries (equal to <code>size()</code> if no weigher is used)
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized long getExpirationCount() {
+		return expirationCount;
+	}
+
+	public synchronized float getHitRatio() {
+		long requestCount = hitCount + missCount;
+		return requestCount == 0 ? 0.0f : (float)hitCount / requestCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " cache [entries: " + entries.size() + ", weight: " + weight + "/" + maxWeight +
+				", hits: " + hitCount + ", misses: " + missCount + ", hit ratio: " + getHitRatio() +
+				", evictions: " + evictionCount + ", expirations: " + expirationCount + "]";
+	}
+}
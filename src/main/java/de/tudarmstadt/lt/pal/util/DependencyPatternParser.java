@@ -4,9 +4,16 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
 import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.trees.GrammaticalRelation;
@@ -85,6 +92,62 @@ public class DependencyPatternParser {
 		Open // "?"
 	}
 	
+	/**
+	 * Precompiled (regular expression) pattern, with fast paths for patterns that match anything,
+	 * literal strings or string prefixes
+	 */
+	static class StringMatcher {
+		enum Type {
+			Any,
+			Literal,
+			Prefix,
+			Regex
+		}
+		
+		private static final Pattern REGEX_META_CHARS = Pattern.compile("[\\\\.\\[\\]{}()*+?^$|]");
+		
+		final Type type;
+		final String literal;
+		final Pattern regex;
+		
+		StringMatcher(String pattern) {
+			if (pattern.equals(".*")) {
+				type = Type.Any;
+				literal = null;
+				regex = null;
+			} else if (!REGEX_META_CHARS.matcher(pattern).find()) {
+				type = Type.Literal;
+				literal = pattern;
+				regex = null;
+			} else if (pattern.endsWith(".*") && !REGEX_META_CHARS.matcher(pattern.substring(0, pattern.length() - 2)).find()) {
+				type = Type.Prefix;
+				literal = pattern.substring(0, pattern.length() - 2);
+				regex = null;
+			} else {
+				type = Type.Regex;
+				literal = null;
+				regex = Pattern.compile(pattern);
+			}
+		}
+		
+		/**
+		 * Same as <code>s.matches(pattern)</code> (for strings without line breaks, which never occur
+		 * in lemmas, tags or relation names)
+		 */
+		boolean matches(String s) {
+			switch (type) {
+			case Any:
+				return true;
+			case Literal:
+				return s.equals(literal);
+			case Prefix:
+				return s.startsWith(literal);
+			default:
+				return regex.matcher(s).matches();
+			}
+		}
+	}
+	
 	/**
 	 * Pattern to match {@link edu.stanford.nlp.trees.GrammaticalRelation}
 	 */
@@ -94,22 +157,25 @@ public class DependencyPatternParser {
 		// GrammaticalRelation.getSpecific()
 		public String specific;
 		
+		StringMatcher nameMatcher;
+		StringMatcher specificMatcher;
+		
 		public boolean matches(GrammaticalRelation rel) {
-			return matchesRelName(rel, name) &&
-				   (specific == null || rel.getSpecific() != null && rel.getSpecific().matches(specific));
+			return matchesRelName(rel, nameMatcher) &&
+				   (specificMatcher == null || rel.getSpecific() != null && specificMatcher.matches(rel.getSpecific()));
 		}
 	}
 	
 	/**
 	 * Use hierarchy of dependency types to match names
 	 */
-	static boolean matchesRelName(GrammaticalRelation rel, String namePattern) {
-		if (rel == null) {
-			return false;
-		} else if (rel.getShortName().matches(namePattern)) {
-			return true;
+	static boolean matchesRelName(GrammaticalRelation rel, StringMatcher nameMatcher) {
+		for (; rel != null; rel = rel.getParent()) {
+			if (nameMatcher.matches(rel.getShortName())) {
+				return true;
+			}
 		}
-		return matchesRelName(rel.getParent(), namePattern);
+		return false;
 	}
 	
 	/**
@@ -121,9 +187,82 @@ public class DependencyPatternParser {
 		// IndexedWord.tag()
 		public String tag;
 		
+		StringMatcher lemmaMatcher;
+		StringMatcher tagMatcher;
+		
 		public boolean matches(IndexedWord node) {
-			return node.lemma().toLowerCase().matches(lemma) &&
-				   (tag == null || node.tag().toLowerCase().matches(tag));
+			return lemmaMatcher.matches(node.lemma().toLowerCase()) &&
+				   (tagMatcher == null || tagMatcher.matches(node.tag().toLowerCase()));
+		}
+	}
+	
+	/**
+	 * A list of patterns that are indexed by the relation names they can match. Patterns whose
+	 * relation name patterns are all literals are only tested against edges with one of these
+	 * relation names (or sub-relations of them), all other patterns are tested against all edges.
+	 */
+	public static class DependencyPatternIndex {
+		List<DependencyPattern> patterns;
+		/**
+		 * Relation name -> positions of patterns that can only match relations with this name (or sub-relations)
+		 */
+		Map<String, BitSet> patternsByRelName = new HashMap<String, BitSet>();
+		BitSet unindexedPatterns = new BitSet();
+		/**
+		 * Cache of candidate patterns per relation
+		 */
+		ConcurrentMap<GrammaticalRelation, List<DependencyPattern>> candidates = new ConcurrentHashMap<GrammaticalRelation, List<DependencyPattern>>();
+		
+		public DependencyPatternIndex(Collection<DependencyPattern> patterns) {
+			this.patterns = new ArrayList<DependencyPattern>(patterns);
+			for (int i = 0; i < this.patterns.size(); i++) {
+				DependencyPattern p = this.patterns.get(i);
+				boolean indexable = true;
+				for (DependencyRelPattern r : p.relPatterns) {
+					indexable &= r.nameMatcher.type == StringMatcher.Type.Literal;
+				}
+				if (!indexable) {
+					unindexedPatterns.set(i);
+					continue;
+				}
+				for (DependencyRelPattern r : p.relPatterns) {
+					BitSet relNamePatterns = patternsByRelName.get(r.nameMatcher.literal);
+					if (relNamePatterns == null) {
+						relNamePatterns = new BitSet();
+						patternsByRelName.put(r.nameMatcher.literal, relNamePatterns);
+					}
+					relNamePatterns.set(i);
+				}
+			}
+		}
+		
+		/**
+		 * Returns all patterns that may match the given relation, in their original order
+		 */
+		public List<DependencyPattern> getCandidates(GrammaticalRelation rel) {
+			List<DependencyPattern> res = candidates.get(rel);
+			if (res == null) {
+				BitSet relPatterns = (BitSet)unindexedPatterns.clone();
+				for (GrammaticalRelation r = rel; r != null; r = r.getParent()) {
+					BitSet relNamePatterns = patternsByRelName.get(r.getShortName());
+					if (relNamePatterns != null) {
+						relPatterns.or(relNamePatterns);
+					}
+				}
+				res = new ArrayList<DependencyPattern>(relPatterns.cardinality());
+				for (int i = relPatterns.nextSetBit(0); i >= 0; i = relPatterns.nextSetBit(i + 1)) {
+					res.add(patterns.get(i));
+				}
+				candidates.put(rel, res);
+			}
+			return res;
+		}
+		
+		/**
+		 * Returns all patterns in their original order
+		 */
+		public List<DependencyPattern> getPatterns() {
+			return patterns;
 		}
 	}
 	
@@ -175,8 +314,10 @@ public class DependencyPatternParser {
 			DependencyNodePattern pattern = new DependencyNodePattern();
 			String[] pParts = orPart.split("#");
 			pattern.lemma = pParts[0].replace("*", ".*");
+			pattern.lemmaMatcher = new StringMatcher(pattern.lemma);
 			if (pParts.length > 1) {
 				pattern.tag = pParts[1].replace("*", ".*");
+				pattern.tagMatcher = new StringMatcher(pattern.tag);
 			}
 			res.add(pattern);
 		}
@@ -190,8 +331,10 @@ public class DependencyPatternParser {
 			DependencyRelPattern pattern = new DependencyRelPattern();
 			String[] pParts = orPart.split("_");
 			pattern.name = pParts[0].replace("*", ".*");
+			pattern.nameMatcher = new StringMatcher(pattern.name);
 			if (pParts.length > 1) {
 				pattern.specific = pParts[1].replace("*", ".*");
+				pattern.specificMatcher = new StringMatcher(pattern.specific);
 			}
 			res.add(pattern);
 		}
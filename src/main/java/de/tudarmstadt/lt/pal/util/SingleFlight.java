@@ -0,0 +1,151 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates concurrent computations of the same key: while a computation for a key is in
+ * progress, other callers asking for the same key wait for it and share its result instead of
+ * starting their own computation.<br/>
+ * Results are not kept once the computation has finished, so this is meant to be used on cache
+ * misses, in front of a cache that stores the result.
+ */
+public class SingleFlight<K, V> {
+
+	private final String name;
+	private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+	private final AtomicLong executionCount = new AtomicLong();
+	private final AtomicLong sharedCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+
+	/**
+	 * @param name Name of this single-flight group (used for logging only)
+	 */
+	public SingleFlight(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Runs the given computation in the calling thread, unless a computation for the same key is
+	 * already in progress, in which case its result is awaited and returned instead.<br/>
+	 * Exceptions thrown by the computation are rethrown to all callers sharing it (checked
+	 * exceptions wrapped in a <code>RuntimeException</code>).
+	 */
+	public V execute(K key, Callable<V> computation) {
+		return execute(key, computation, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Like {@link #execute(Object, Callable)}, but waits at most <code>timeoutMillis</code> for a
+	 * computation started by another caller and returns <code>null</code> if it doesn't finish in
+	 * time (the computation itself is not affected).<br/>
+	 * A <code>null</code> result of a computation started by another caller is considered a failure
+	 * (e.g. the other caller ran out of time), in which case the computation is started again by
+	 * this caller, as long as time remains.
+	 * 
+	 * @param timeoutMillis Maximum time to wait for other callers' computations, or
+	 * <code>Long.MAX_VALUE</code> to wait without limit
+	 */
+	public V execute(K key, Callable<V> computation, long timeoutMillis) {
+		long expirationTime = timeoutMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			FutureTask<V> task = new FutureTask<V>(computation);
+			FutureTask<V> running = inFlight.putIfAbsent(key, task);
+			if (running == null) {
+				executionCount.incrementAndGet();
+				try {
+					task.run();
+				} finally {
+					inFlight.remove(key, task);
+				}
+				return getResult(task, Long.MAX_VALUE);
+			}
+			sharedCount.incrementAndGet();
+			V result = getResult(running, expirationTime);
+			if (result != null) {
+				return result;
+			}
+			if (expirationTime != Long.MAX_VALUE && System.currentTimeMillis() >= expirationTime) {
+				if (!running.isDone()) {
+					timeoutCount.incrementAndGet();
+				}
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the task to complete until the given point in time, returns <code>null</code> if
+	 * it doesn't complete in time. Interrupts don't abort the wait (the computation runs in
+	 * another caller's thread and can't be cancelled on our behalf), but are restored afterwards.
+	 */
+	private V getResult(FutureTask<V> task, long expirationTime) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					if (expirationTime == Long.MAX_VALUE) {
+						return task.get();
+					}
+					return task.get(Math.max(0, expirationTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (TimeoutException e) {
+					return null;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of computations currently in progress
+	 */
+	public int getNumInFlight() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Returns the number of computations that were actually run
+	 */
+	public long getExecutionCount() {
+		return executionCount.get();
+	}
+
+	/**
+	 * Returns the number of calls that shared the result of a computation already in progress
+	 */
+	public long getSharedCount() {
+		return sharedCount.get();
+	}
+
+	/**
+	 * Returns the number of calls that gave up waiting for a computation of another caller
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + " single-flight [executions: " + executionCount.get() + ", shared: " + sharedCount.get() +
+				", timeouts: " + timeoutCount.get() + ", in flight: " + inFlight.size() + "]";
+	}
+}
@@ -1,10 +1,34 @@
 package de.tudarmstadt.lt.pal.util;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
 public class StringUtil {
+	/**
+	 * Returns the SHA-1 hash of the given string (UTF-8 encoded) as hexadecimal string
+	 */
+	public static String sha1Hex(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-1
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform is required to support UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+	
 	/**
 	 * Tests if <code>haystack</code> has word parts starting with <code>needle</code>
 	 */
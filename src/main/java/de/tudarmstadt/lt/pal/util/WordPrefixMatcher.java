@@ -0,0 +1,82 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches a fixed list of needles against many haystacks at once. A needle matches a haystack if
+ * {@link StringUtil#hasPartStartingWith(String, String)} holds, i.e. if the haystack contains the
+ * needle at its beginning or directly after a space.<br/>
+ * The needles are stored in a character trie, so that each haystack is scanned only once per
+ * word instead of once per needle.
+ */
+public class WordPrefixMatcher {
+	private static class Node {
+		Map<Character, Node> children;
+		/**
+		 * Indices of all needles ending at this node
+		 */
+		List<Integer> needles;
+	}
+
+	private final Node root = new Node();
+	private final int numNeedles;
+
+	public WordPrefixMatcher(List<String> needles) {
+		numNeedles = needles.size();
+		int i = 0;
+		for (String needle : needles) {
+			Node node = root;
+			for (int j = 0; j < needle.length(); j++) {
+				if (node.children == null) {
+					node.children = new HashMap<Character, Node>(4);
+				}
+				Character c = needle.charAt(j);
+				Node child = node.children.get(c);
+				if (child == null) {
+					child = new Node();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+			if (node.needles == null) {
+				node.needles = new ArrayList<Integer>(1);
+			}
+			node.needles.add(i);
+			i++;
+		}
+	}
+
+	/**
+	 * Returns the indices of all needles matching <code>haystack</code>, in ascending order
+	 */
+	public List<Integer> match(String haystack) {
+		BitSet matches = new BitSet(numNeedles);
+		for (int start = 0; start <= haystack.length(); start++) {
+			if (start > 0 && haystack.charAt(start - 1) != ' ') {
+				continue;
+			}
+			Node node = root;
+			int pos = start;
+			while (node != null) {
+				if (node.needles != null) {
+					for (int needle : node.needles) {
+						matches.set(needle);
+					}
+				}
+				if (node.children == null || pos >= haystack.length()) {
+					break;
+				}
+				node = node.children.get(haystack.charAt(pos++));
+			}
+		}
+		List<Integer> res = new ArrayList<Integer>(matches.cardinality());
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			res.add(i);
+		}
+		return res;
+	}
+}
@@ -2,20 +2,29 @@ package de.tudarmstadt.lt.pal.wordnet;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
 
 import de.tudarmstadt.lt.pal.MappedString;
+import de.tudarmstadt.lt.pal.MappedString.Trace;
 import de.tudarmstadt.lt.pal.MappedString.TraceElement;
+import de.tudarmstadt.lt.pal.MappedString.TraceElementSource;
+import de.tudarmstadt.lt.pal.util.BoundedCache;
 import de.tudarmstadt.lt.pal.util.ComparablePair;
 import de.tudarmstadt.lt.pal.util.StringUtil;
 import edu.mit.jwi.Dictionary;
 import edu.mit.jwi.IDictionary;
+import edu.mit.jwi.RAMDictionary;
+import edu.mit.jwi.data.ILoadPolicy;
 import edu.mit.jwi.item.IIndexWord;
 import edu.mit.jwi.item.IPointer;
 import edu.mit.jwi.item.ISynset;
@@ -30,14 +39,94 @@ import edu.mit.jwi.item.Pointer;
  */
 public class WordNetConnector {
 	IDictionary dict;
+	/**
+	 * The disk-based dictionary is not thread-safe, so all lookups have to be synchronized.
+	 * The in-memory dictionary is never modified after loading and can be used without locking.
+	 */
+	boolean synchronizeLookups;
+	/**
+	 * Precomputed expansions, or <code>null</code> if the dictionary directory contains no
+	 * expansion index (see {@link WordNetExpansionIndex})
+	 */
+	WordNetExpansionIndex expansionIndex;
+	/**
+	 * Expansions of words that are not contained in the expansion index
+	 */
+	BoundedCache<String, Map<MappedString, Float>> relatedWordsCache = new BoundedCache<String, Map<MappedString, Float>>("WordNet related words", 10000, 0);
+	BoundedCache<String, Map<MappedString, Float>> synonymsAndHypernymsCache = new BoundedCache<String, Map<MappedString, Float>>("WordNet synonyms and hypernyms", 10000, 0);
+	
+	Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
 	
 	public WordNetConnector(String dir) {
+		this(dir, false);
+	}
+	
+	/**
+	 * @param dir WordNet dictionary directory
+	 * @param inMemory Load the entire dictionary into memory (requires ~100 MB heap and a few
+	 *                 seconds on startup), which allows concurrent lookups without locking
+	 */
+	public WordNetConnector(String dir, boolean inMemory) {
+		this(dir, inMemory, true);
+	}
+	
+	/**
+	 * @param dir WordNet dictionary directory
+	 * @param inMemory Load the entire dictionary into memory
+	 * @param useExpansionIndex Use the precomputed expansion index in the dictionary directory
+	 *                          (if it exists)
+	 */
+	public WordNetConnector(String dir, boolean inMemory, boolean useExpansionIndex) {
 		try {
-			dict = new Dictionary(new File(dir));
-			dict.open();
+			if (inMemory) {
+				long startTime = System.currentTimeMillis();
+				// open() blocks until the dictionary is loaded completely
+				dict = new RAMDictionary(new File(dir), ILoadPolicy.IMMEDIATE_LOAD);
+				dict.open();
+				log.info("Loaded WordNet into memory in " + (System.currentTimeMillis() - startTime) + " ms");
+			} else {
+				dict = new Dictionary(new File(dir));
+				dict.open();
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to initialize WordNetConnector from " + dir, e);
 		}
+		synchronizeLookups = !inMemory;
+		File indexFile = new File(dir, WordNetExpansionIndex.FILE_NAME);
+		if (useExpansionIndex && indexFile.exists()) {
+			try {
+				expansionIndex = new WordNetExpansionIndex(indexFile);
+			} catch (IOException e) {
+				log.warn("Failed to open WordNet expansion index " + indexFile + ", expanding words on demand", e);
+			}
+		}
+	}
+	
+	private IIndexWord getIndexWord(String lemma, POS pos) {
+		if (synchronizeLookups) {
+			synchronized (dict) {
+				return dict.getIndexWord(lemma, pos);
+			}
+		}
+		return dict.getIndexWord(lemma, pos);
+	}
+	
+	private IWord getWord(IWordID id) {
+		if (synchronizeLookups) {
+			synchronized (dict) {
+				return dict.getWord(id);
+			}
+		}
+		return dict.getWord(id);
+	}
+	
+	private ISynset getSynset(ISynsetID id) {
+		if (synchronizeLookups) {
+			synchronized (dict) {
+				return dict.getSynset(id);
+			}
+		}
+		return dict.getSynset(id);
 	}
 	
 	public void addSynonyms(Map<MappedString, Float> synonyms, Map<MappedString, Float> toAdd) {
@@ -51,13 +140,13 @@ public class WordNetConnector {
 	}
 	
 
-	public void addSynonym(Map<MappedString, Float> synonymScores, String synonym, List<TraceElement> trace, float score) {
+	public void addSynonym(Map<MappedString, Float> synonymScores, String synonym, Trace trace, float score) {
 		MappedString mappedWord = new MappedString(synonym, trace);
 		addSynonym(synonymScores, mappedWord, score);
 	}
 	
 	public void addSynonym(Map<MappedString, Float> synonymScores, MappedString synonym, float score) {
-		synonym.value = synonym.value.replaceAll("_", " ");
+		synonym.value = synonym.value.replace('_', ' ');
 		Float existingScore = synonymScores.get(synonym);
 		// Insert only if no such synonym exists yet or if
 		// we've found a better score for the same synonym
@@ -82,31 +171,50 @@ public class WordNetConnector {
 		return pos;
 	}
 	
+	/**
+	 * Looks up an expansion in the expansion index and the cache. The returned map must not be modified.
+	 */
+	private Map<MappedString, Float> getExpansion(String key, BoundedCache<String, Map<MappedString, Float>> cache) {
+		if (expansionIndex != null) {
+			Map<MappedString, Float> expansion = expansionIndex.get(key);
+			if (expansion != null) {
+				return expansion;
+			}
+		}
+		return cache.get(key);
+	}
+	
+	/**
+	 * Returns synonyms and hypernyms of a word. The returned map must not be modified.
+	 */
 	public Map<MappedString, Float> getSynonymsAndHypernyms(String word, String posStr) {
-		Map<MappedString, Float> synonymScores = new HashMap<MappedString, Float>();
 		POS pos = posFromString(posStr);
 		if (pos == null) {
 			return new HashMap<MappedString, Float>();
 		}
+		String key = WordNetExpansionIndex.getSynonymsAndHypernymsKey(word, pos);
+		Map<MappedString, Float> synonymScores = getExpansion(key, synonymsAndHypernymsCache);
+		if (synonymScores == null) {
+			synonymScores = computeSynonymsAndHypernyms(word, pos);
+			synonymsAndHypernymsCache.put(key, synonymScores);
+		}
+		return synonymScores;
+	}
+	
+	Map<MappedString, Float> computeSynonymsAndHypernyms(String word, POS pos) {
+		Map<MappedString, Float> synonymScores = new HashMap<MappedString, Float>();
 		Collection<ComparablePair<String, Float>> partialWords = StringUtil.getPartialMainWords(word);
 		for (ComparablePair<String, Float> partialWord : partialWords) {
-			IIndexWord idxWord;
-			synchronized (dict) {
-				idxWord = dict.getIndexWord(partialWord.key, pos);
-			}
+			IIndexWord idxWord = getIndexWord(partialWord.key, pos);
 			if (idxWord == null) {
 				continue;
 			}
-			List<TraceElement> trace = new LinkedList<TraceElement>();
-			trace.add(new TraceElement(word, ""));
+			Trace trace = Trace.EMPTY.append(word, "");
 			if (!partialWord.key.equals(word)) {
-				trace.add(new TraceElement(idxWord.getLemma() + " (partial word)", ""));
+				trace = trace.append(idxWord.getLemma(), "partial word", "");
 			}
 			for (IWordID wordID : idxWord.getWordIDs()) {
-				IWord w;
-				synchronized (dict) {
-					w = dict.getWord(wordID);
-				}
+				IWord w = getWord(wordID);
 				// Get direct and transitive synonyms
 				addSynonyms(synonymScores, getSynonyms(w, 1, 2, trace), partialWord.value);
 				// must be > 0.1 because queries without type constraints are scored with a factor of 0.1
@@ -118,138 +226,266 @@ public class WordNetConnector {
 		return synonymScores;
 	}
 	
-	Map<String, Map<MappedString, Float>> relatedWordsCache = new HashMap<String, Map<MappedString, Float>>();
-	
-	public synchronized Map<MappedString, Float> getRelatedWords(String word, String posStr) {
-		String cacheKey = word + "#" + posStr;
-		Map<MappedString, Float> synonymScores = relatedWordsCache.get(cacheKey);
+	/**
+	 * Returns words related to the given word. The returned map must not be modified.
+	 */
+	public Map<MappedString, Float> getRelatedWords(String word, String posStr) {
+		POS pos = posFromString(posStr);
+		if (pos == null) {
+			return new HashMap<MappedString, Float>();
+		}
+		String key = WordNetExpansionIndex.getRelatedWordsKey(word, pos);
+		Map<MappedString, Float> synonymScores = getExpansion(key, relatedWordsCache);
 		if (synonymScores == null) {
-			synonymScores = new HashMap<MappedString, Float>();
-			relatedWordsCache.put(cacheKey, synonymScores);
-			POS pos = posFromString(posStr);
-			if (pos == null) {
-				return new HashMap<MappedString, Float>();
+			// Concurrent misses for the same word may compute it twice, which is cheaper than
+			// holding a lock while computing
+			synonymScores = computeRelatedWords(word, pos);
+			relatedWordsCache.put(key, synonymScores);
+		}
+		return synonymScores;
+	}
+	
+	Map<MappedString, Float> computeRelatedWords(String word, POS pos) {
+		Map<MappedString, Float> synonymScores = new HashMap<MappedString, Float>();
+		Trace trace = Trace.EMPTY.append(word, "");
+		Collection<ComparablePair<String, Float>> partialWords = StringUtil.getPartialMainWords(word);
+		for (ComparablePair<String, Float> partialWord : partialWords) {
+			float factor = partialWord.value;
+			IIndexWord idxWord = getIndexWord(partialWord.key, pos);
+			if (idxWord == null) {
+				continue;
 			}
-			List<TraceElement> trace = new LinkedList<TraceElement>();
-			trace.add(new TraceElement(word, ""));
-			Collection<ComparablePair<String, Float>> partialWords = StringUtil.getPartialMainWords(word);
-			for (ComparablePair<String, Float> partialWord : partialWords) {
-				float factor = partialWord.value;
-				IIndexWord idxWord;
-				synchronized (dict) {
-					idxWord = dict.getIndexWord(partialWord.key, pos);
-				}
-				if (idxWord == null) {
-					continue;
+			// Use hypernyms to find related words, but assign a penalty
+			// as hypernyms are a "bad" way to find synonyms
+			// (human is not a synonym of author, but the other way around)
+			float hypernymPenalty = 0.1f;
+			for (IWordID wordID : idxWord.getWordIDs()) {
+				IWord w = getWord(wordID);
+				Trace _trace = trace;
+				// only add "partial node" notice if it actually is only a part
+				if (!w.getLemma().equals(word)) {
+					_trace = _trace.append(new WordTraceElement(w, "partial word"));
 				}
-				// Use hypernyms to find related words, but assign a penalty
-				// as hypernyms are a "bad" way to find synonyms
-				// (human is not a synonym of author, but the other way around)
-				float hypernymPenalty = 0.1f;
-				for (IWordID wordID : idxWord.getWordIDs()) {
-					IWord w;
-					synchronized (dict) {
-						w = dict.getWord(wordID);
-					}
-					List<TraceElement> _trace = new LinkedList<TraceElement>(trace);
-					// only add "partial node" notice if it actually is only a part
-					if (!w.getLemma().equals(word)) {
-						_trace.add(new TraceElement(w.getLemma() + " (partial word)", getWordNetUrl(w)));
-					}
-					addSynonyms(synonymScores, getHyponyms(w.getSynset(), 3, _trace), factor);
-					addSynonyms(synonymScores, getHypernyms(w.getSynset(), 3, _trace), factor*hypernymPenalty);
-					addSynonym(synonymScores, w.getLemma(), _trace, factor);
-					// Get direct and transitive synonyms
-					addSynonyms(synonymScores, getSynonyms(w, 1, 2, _trace), factor);
+				addSynonyms(synonymScores, getHyponyms(w.getSynset(), 3, _trace), factor);
+				addSynonyms(synonymScores, getHypernyms(w.getSynset(), 3, _trace), factor*hypernymPenalty);
+				addSynonym(synonymScores, w.getLemma(), _trace, factor);
+				// Get direct and transitive synonyms
+				addSynonyms(synonymScores, getSynonyms(w, 1, 2, _trace), factor);
+				
+				List<IWordID> rWordIDs = w.getRelatedWords(Pointer.DERIVATIONALLY_RELATED);
+				for (IWordID rWordID : rWordIDs) {
+					IWord rW = getWord(rWordID);
+					Trace __trace = _trace.append(new WordTraceElement(rW, "related form"));
+					addSynonym(synonymScores, rW.getLemma(), __trace, factor);
+					addSynonyms(synonymScores, getHyponyms(rW.getSynset(), 3, __trace), factor);
+					addSynonyms(synonymScores, getHypernyms(rW.getSynset(), 3, __trace), factor*hypernymPenalty);
 					
-					List<IWordID> rWordIDs = w.getRelatedWords(Pointer.DERIVATIONALLY_RELATED);
-					for (IWordID rWordID : rWordIDs) {
-						IWord rW;
-						synchronized (dict) {
-							rW = dict.getWord(rWordID);
-						}
-						List<TraceElement> __trace = new LinkedList<TraceElement>(_trace);
-						__trace.add(new TraceElement(rW.getLemma() + " (related form)", getWordNetUrl(rW)));
-						addSynonym(synonymScores, rW.getLemma(), __trace, factor);
-						addSynonyms(synonymScores, getHyponyms(rW.getSynset(), 3, __trace), factor);
-						addSynonyms(synonymScores, getHypernyms(rW.getSynset(), 3, __trace), factor*hypernymPenalty);
-						
-						// Get direct and transitive synonyms
-						addSynonyms(synonymScores, getSynonyms(rW, 1, 2, __trace));
-					}
+					// Get direct and transitive synonyms
+					addSynonyms(synonymScores, getSynonyms(rW, 1, 2, __trace));
 				}
 			}
 		}
-		
 		return synonymScores;
 	}
 	
-	public Map<MappedString, Float> getSynonyms(IWord word, int depth, int maxDepth, List<TraceElement> trace) {
+	/**
+	 * Word found by a synset traversal, along with its score and its trace relative to the start
+	 * of the traversal
+	 */
+	static class Expansion {
+		final String lemma;
+		final float score;
+		final Trace trace;
+		
+		Expansion(String lemma, float score, Trace trace) {
+			this.lemma = lemma;
+			this.score = score;
+			this.trace = trace;
+		}
+	}
+	
+	/**
+	 * Trace element for a word found via the given relation, e.g. "writer (synonym)". Its strings
+	 * are only built when the trace is listed.
+	 */
+	private static class WordTraceElement implements TraceElementSource {
+		final IWord word;
+		final String relation;
+		
+		WordTraceElement(IWord word, String relation) {
+			this.word = word;
+			this.relation = relation;
+		}
+		
+		@Override
+		public TraceElement toTraceElement() {
+			return new TraceElement(word.getLemma() + " (" + relation + ")", getWordNetUrl(word));
+		}
+	}
+	
+	/**
+	 * Trace element for a synset found via the given relation, described by its gloss
+	 */
+	private static class SynsetTraceElement implements TraceElementSource {
+		final ISynset synset;
+		final String relation;
+		
+		SynsetTraceElement(ISynset synset, String relation) {
+			this.synset = synset;
+			this.relation = relation;
+		}
+		
+		@Override
+		public TraceElement toTraceElement() {
+			return new TraceElement(synset.getGloss() + " (" + relation + ")", "");
+		}
+	}
+	
+	/**
+	 * Node of a breadth-first synset traversal
+	 */
+	private static class TraversalNode<T> {
+		final T node;
+		final Trace trace;
+		
+		TraversalNode(T node, Trace trace) {
+			this.node = node;
+			this.trace = trace;
+		}
+	}
+	
+	/**
+	 * Traversal results by start lemma/synset, shared by all expansions. Cached lists are never modified.
+	 */
+	BoundedCache<String, List<Expansion>> traversalCache = new BoundedCache<String, List<Expansion>>("WordNet synset traversal", 100000, 0);
+	
+	/**
+	 * Adds traversal results to a map of synonyms, prepending the given trace to each result's trace
+	 */
+	private Map<MappedString, Float> toSynonymMap(List<Expansion> expansions, Trace trace) {
 		Map<MappedString, Float> res = new HashMap<MappedString, Float>();
-		if (depth > maxDepth) {
-			return res;
+		for (Expansion e : expansions) {
+			MappedString synonym = new MappedString(e.lemma, trace.append(e.trace));
+			addSynonym(res, synonym, e.score);
 		}
-		List<IWordID> words;
-		synchronized (dict) {
-			words = dict.getIndexWord(word.getLemma(), word.getPOS()).getWordIDs();
+		return res;
+	}
+	
+	public Map<MappedString, Float> getSynonyms(IWord word, int depth, int maxDepth, Trace trace) {
+		return toSynonymMap(getSynonyms(word.getLemma(), word.getPOS(), depth, maxDepth), trace);
+	}
+	
+	/**
+	 * Finds (transitive) synonyms of a lemma by a breadth-first traversal of the synsets of the
+	 * lemma and its synonyms. Each synset is visited once, and each synonym is returned once
+	 * with the score of the lowest depth <code>d</code> at which it was found:
+	 * <code>1 - d / (maxDepth + 1)</code>.
+	 */
+	private List<Expansion> getSynonyms(String lemma, POS pos, int depth, int maxDepth) {
+		String cacheKey = "s#" + pos.getTag() + "#" + depth + "#" + maxDepth + "#" + lemma;
+		List<Expansion> res = traversalCache.get(cacheKey);
+		if (res != null) {
+			return res;
 		}
-		for (IWordID sameWordInOtherSynset : words) {
-			ISynset s;
-			synchronized (dict) {
-				s = dict.getWord(sameWordInOtherSynset).getSynset();
-			}
-			for (IWord synonym : s.getWords()) {
-				float score = 1.0f - (float)depth / (maxDepth + 1);
-				List<TraceElement> _trace = new LinkedList<TraceElement>(trace);
-				// we don't have to mention that a word is a synonym of itself
-				if (!word.getLemma().equals(synonym.getLemma())) {
-					_trace.add(new TraceElement(synonym.getLemma() + " (synonym)", getWordNetUrl(synonym)));
+		res = new ArrayList<Expansion>();
+		Set<ISynsetID> visitedSynsets = new HashSet<ISynsetID>();
+		Set<String> foundLemmas = new HashSet<String>();
+		List<TraversalNode<String>> frontier = new LinkedList<TraversalNode<String>>();
+		frontier.add(new TraversalNode<String>(lemma, Trace.EMPTY));
+		for (int d = depth; d <= maxDepth; d++) {
+			float score = 1.0f - (float)d / (maxDepth + 1);
+			List<TraversalNode<String>> nextFrontier = new LinkedList<TraversalNode<String>>();
+			for (TraversalNode<String> n : frontier) {
+				IIndexWord idxWord = getIndexWord(n.node, pos);
+				if (idxWord == null) {
+					continue;
+				}
+				for (IWordID sameWordInOtherSynset : idxWord.getWordIDs()) {
+					// All words of a visited synset have already been found with the same or a better score
+					if (!visitedSynsets.add(sameWordInOtherSynset.getSynsetID())) {
+						continue;
+					}
+					ISynset s = getSynset(sameWordInOtherSynset.getSynsetID());
+					for (IWord synonym : s.getWords()) {
+						if (!foundLemmas.add(synonym.getLemma())) {
+							continue;
+						}
+						Trace _trace = n.trace;
+						// we don't have to mention that a word is a synonym of itself
+						if (!n.node.equals(synonym.getLemma())) {
+							_trace = n.trace.append(new WordTraceElement(synonym, "synonym"));
+						}
+						res.add(new Expansion(synonym.getLemma(), score, _trace));
+						nextFrontier.add(new TraversalNode<String>(synonym.getLemma(), _trace));
+					}
 				}
-				addSynonym(res, synonym.getLemma(), _trace, score);
-				addSynonyms(res, getSynonyms(synonym, depth + 1, maxDepth, _trace));
 			}
+			frontier = nextFrontier;
 		}
+		traversalCache.put(cacheKey, res);
 		return res;
 	}
 	
-	public Map<MappedString, Float> getHypernyms(ISynset s, int maxDepth, List<TraceElement> trace) {
+	public Map<MappedString, Float> getHypernyms(ISynset s, int maxDepth, Trace trace) {
 		return getRelatedWords(s, 1, maxDepth, Pointer.HYPERNYM, true, trace);
 	}
 	
-	public Map<MappedString, Float> getHyponyms(ISynset s, int maxDepth, List<TraceElement> trace) {
+	public Map<MappedString, Float> getHyponyms(ISynset s, int maxDepth, Trace trace) {
 		return getRelatedWords(s, 1, maxDepth, Pointer.HYPONYM, true, trace);
 	}
 	
-	private String getWordNetUrl(IWord w) {
+	private static String getWordNetUrl(IWord w) {
 		String s = w.getLemma();
 		return "http://wordnetweb.princeton.edu/perl/webwn?s=" + s;
 	}
 	
-	public Map<MappedString, Float> getRelatedWords(ISynset s, int depth, int maxDepth, IPointer relationType, boolean assignDepthPenalty, List<TraceElement> trace) {
-		if (depth == maxDepth) {
-			return Collections.emptyMap();
-		}
-		float scoreInThisDepth = 1.0f;
-		if (assignDepthPenalty) {
-			scoreInThisDepth -= (float)depth / maxDepth;
+	public Map<MappedString, Float> getRelatedWords(ISynset s, int depth, int maxDepth, IPointer relationType, boolean assignDepthPenalty, Trace trace) {
+		return toSynonymMap(getRelatedWords(s, depth, maxDepth, relationType, assignDepthPenalty), trace);
+	}
+	
+	/**
+	 * Finds words in synsets that are (transitively) related to the given synset by a
+	 * breadth-first traversal along the given relation. Each synset is visited once, and each
+	 * word is returned once with the score of the lowest depth <code>d &lt; maxDepth</code> at
+	 * which it was found: <code>1 - d / maxDepth</code> (or 1 without depth penalty).
+	 */
+	private List<Expansion> getRelatedWords(ISynset s, int depth, int maxDepth, IPointer relationType, boolean assignDepthPenalty) {
+		String cacheKey = "r#" + relationType.getSymbol() + "#" + depth + "#" + maxDepth + "#" + assignDepthPenalty + "#" + s.getID();
+		List<Expansion> res = traversalCache.get(cacheKey);
+		if (res != null) {
+			return res;
 		}
-		Map<MappedString, Float> res = new HashMap<MappedString, Float>();
-//		Map foo = word.getRelatedMap();
-		List<ISynsetID> sIDs = s.getRelatedSynsets(relationType);
-		for (ISynsetID sID : sIDs) {
-			ISynset hS;
-			synchronized (dict) {
-				hS = dict.getSynset(sID);
+		res = new ArrayList<Expansion>();
+		Set<ISynsetID> visitedSynsets = new HashSet<ISynsetID>();
+		Set<String> foundLemmas = new HashSet<String>();
+		List<TraversalNode<ISynset>> frontier = new LinkedList<TraversalNode<ISynset>>();
+		frontier.add(new TraversalNode<ISynset>(s, Trace.EMPTY));
+		for (int d = depth; d < maxDepth; d++) {
+			float scoreInThisDepth = 1.0f;
+			if (assignDepthPenalty) {
+				scoreInThisDepth -= (float)d / maxDepth;
 			}
-			List<TraceElement> _trace = new LinkedList<TraceElement>(trace);
-			_trace.add(new TraceElement(hS.getGloss() + " (" + relationType.getName() + ")", ""));
-			for (IWord h : hS.getWords()) {
-				List<TraceElement> __trace = new LinkedList<TraceElement>(trace);
-				__trace.add(new TraceElement(h.getLemma() + " (" + relationType.getName() + ")", getWordNetUrl(h)));
-				addSynonym(res, h.getLemma(), __trace, scoreInThisDepth);
+			List<TraversalNode<ISynset>> nextFrontier = new LinkedList<TraversalNode<ISynset>>();
+			for (TraversalNode<ISynset> n : frontier) {
+				for (ISynsetID sID : n.node.getRelatedSynsets(relationType)) {
+					// All words of a visited synset have already been found with the same or a better score
+					if (!visitedSynsets.add(sID)) {
+						continue;
+					}
+					ISynset hS = getSynset(sID);
+					for (IWord h : hS.getWords()) {
+						if (foundLemmas.add(h.getLemma())) {
+							res.add(new Expansion(h.getLemma(), scoreInThisDepth,
+									n.trace.append(new WordTraceElement(h, relationType.getName()))));
+						}
+					}
+					nextFrontier.add(new TraversalNode<ISynset>(hS,
+							n.trace.append(new SynsetTraceElement(hS, relationType.getName()))));
+				}
 			}
-			addSynonyms(res, getRelatedWords(hS, depth + 1, maxDepth, relationType, assignDepthPenalty, _trace));
+			frontier = nextFrontier;
 		}
+		traversalCache.put(cacheKey, res);
 		return res;
 	}
 }
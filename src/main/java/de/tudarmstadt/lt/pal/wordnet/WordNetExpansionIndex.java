@@ -0,0 +1,350 @@
+package de.tudarmstadt.lt.pal.wordnet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+import de.tudarmstadt.lt.pal.MappedString;
+import de.tudarmstadt.lt.pal.MappedString.Trace;
+import de.tudarmstadt.lt.pal.MappedString.TraceElement;
+import edu.mit.jwi.item.IIndexWord;
+import edu.mit.jwi.item.POS;
+
+/**
+ * Precomputed WordNet expansions (related words and synonyms/hypernyms along with scores and traces)
+ * for all WordNet lemmas, stored in a memory-mapped file.<br/>
+ * The index is built offline using {@link #main(String[])}. Lookups do not modify any state and
+ * can be performed by multiple threads concurrently.<br/>
+ * File layout: header, string table (all lemmas, trace values and URLs), sorted expansion keys
+ * and the encoded expansions, which refer to strings by their number in the string table.
+ */
+public class WordNetExpansionIndex {
+	/**
+	 * Name of the index file in the WordNet dictionary directory
+	 */
+	public static final String FILE_NAME = "pal-expansion-index.bin";
+
+	/**
+	 * Identifies PAL WordNet expansion files ("PALW")
+	 */
+	private static final int FILE_MAGIC = 0x50414c57;
+	/**
+	 * Has to be increased whenever the file format or the expansion algorithm in
+	 * {@link WordNetConnector} changes
+	 */
+	static final int FILE_VERSION = 2;
+	private static final int HEADER_LENGTH = 4 * 4 + 3 * 8;
+
+	static Logger log = Logger.getLogger("de.tudarmstadt.lt.pal");
+
+	private final ByteBuffer data;
+	private final int numStrings;
+	private final int numKeys;
+	private final int stringOffsetsStart;
+	private final int stringDataStart;
+	private final int keysStart;
+	private final int expansionsStart;
+
+	/**
+	 * Opens an existing index file
+	 *
+	 * @throws IOException If the file cannot be read or has an unsupported version
+	 */
+	public WordNetExpansionIndex(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != FILE_MAGIC || buffer.getInt(4) != FILE_VERSION) {
+				throw new IOException("Unsupported WordNet expansion index " + file);
+			}
+			numStrings = buffer.getInt(8);
+			numKeys = buffer.getInt(12);
+			stringOffsetsStart = HEADER_LENGTH;
+			stringDataStart = (int)buffer.getLong(16);
+			keysStart = (int)buffer.getLong(24);
+			expansionsStart = (int)buffer.getLong(32);
+			data = buffer;
+		} finally {
+			// The mapping stays valid after closing the file
+			raf.close();
+		}
+		log.info("Opened WordNet expansion index " + file + " with " + numKeys + " expansions");
+	}
+
+	static String getRelatedWordsKey(String word, POS pos) {
+		return "r#" + pos.getTag() + "#" + word;
+	}
+
+	static String getSynonymsAndHypernymsKey(String word, POS pos) {
+		return "s#" + pos.getTag() + "#" + word;
+	}
+
+	/**
+	 * Returns the precomputed expansion for the given key, or <code>null</code> if the index does
+	 * not contain the key
+	 */
+	Map<MappedString, Float> get(String key) {
+		// Each lookup uses its own view of the buffer, so that concurrent lookups don't interfere
+		ByteBuffer buffer = data.duplicate();
+		int lo = 0;
+		int hi = numKeys - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = getString(buffer, buffer.getInt(keysStart + mid * 8)).compareTo(key);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return readExpansion(buffer, expansionsStart + buffer.getInt(keysStart + mid * 8 + 4));
+			}
+		}
+		return null;
+	}
+
+	private Map<MappedString, Float> readExpansion(ByteBuffer buffer, int offset) {
+		buffer.position(offset);
+		int size = buffer.getInt();
+		// Default capacity, so that the map grows (and iterates) like the originally computed one
+		Map<MappedString, Float> res = new HashMap<MappedString, Float>();
+		for (int i = 0; i < size; i++) {
+			int valueId = buffer.getInt();
+			float score = buffer.getFloat();
+			int traceLength = buffer.getInt();
+			Trace trace = Trace.EMPTY;
+			for (int j = 0; j < traceLength; j++) {
+				int traceValueId = buffer.getInt();
+				int traceUrlId = buffer.getInt();
+				trace = trace.append(getString(buffer, traceValueId), getString(buffer, traceUrlId));
+			}
+			// getString() moves the position
+			int position = buffer.position();
+			res.put(new MappedString(getString(buffer, valueId), trace), score);
+			buffer.position(position);
+		}
+		return res;
+	}
+
+	private String getString(ByteBuffer buffer, int id) {
+		int start = buffer.getInt(stringOffsetsStart + id * 4);
+		int end = id + 1 < numStrings ? buffer.getInt(stringOffsetsStart + (id + 1) * 4) : keysStart - stringDataStart;
+		byte[] bytes = new byte[end - start];
+		int position = buffer.position();
+		buffer.position(stringDataStart + start);
+		buffer.get(bytes);
+		buffer.position(position);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform is required to support UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes an index file. Expansions are buffered in a temporary file, only the string table
+	 * and the keys are kept in memory.
+	 */
+	static class Writer {
+		File file;
+		File tmpFile;
+		DataOutputStream expansions;
+		long expansionsLength = 0;
+		Map<String, Integer> stringIds = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		TreeMap<String, Long> keyOffsets = new TreeMap<String, Long>();
+
+		Writer(File file) throws IOException {
+			this.file = file;
+			tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+			expansions = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+		}
+
+		private int getStringId(String s) {
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = strings.size();
+				strings.add(s);
+				stringIds.put(s, id);
+			}
+			return id;
+		}
+
+		void add(String key, Map<MappedString, Float> expansion) throws IOException {
+			getStringId(key);
+			keyOffsets.put(key, expansionsLength);
+			expansions.writeInt(expansion.size());
+			// Entries are written in iteration order, so that the decoded map iterates in the same order
+			for (Entry<MappedString, Float> entry : expansion.entrySet()) {
+				expansions.writeInt(getStringId(entry.getKey().value));
+				expansions.writeFloat(entry.getValue());
+				expansions.writeInt(entry.getKey().trace.size());
+				for (TraceElement te : entry.getKey().trace.toList()) {
+					expansions.writeInt(getStringId(te.value));
+					expansions.writeInt(getStringId(te.url));
+				}
+			}
+			expansionsLength = expansions.size() & 0xffffffffL;
+			if (expansionsLength > Integer.MAX_VALUE / 2) {
+				throw new IOException("WordNet expansion index too large, restrict it to a list of lemmas");
+			}
+		}
+
+		void close() throws IOException {
+			expansions.close();
+			List<byte[]> encodedStrings = new ArrayList<byte[]>(strings.size());
+			long stringDataLength = 0;
+			for (String s : strings) {
+				byte[] bytes = s.getBytes("UTF-8");
+				encodedStrings.add(bytes);
+				stringDataLength += bytes.length;
+			}
+			long stringDataStart = HEADER_LENGTH + 4L * strings.size();
+			long keysStart = stringDataStart + stringDataLength;
+			long expansionsStart = keysStart + 8L * keyOffsets.size();
+			if (expansionsStart + expansionsLength > Integer.MAX_VALUE) {
+				throw new IOException("WordNet expansion index too large, restrict it to a list of lemmas");
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(strings.size());
+				out.writeInt(keyOffsets.size());
+				out.writeLong(stringDataStart);
+				out.writeLong(keysStart);
+				out.writeLong(expansionsStart);
+				int offset = 0;
+				for (byte[] bytes : encodedStrings) {
+					out.writeInt(offset);
+					offset += bytes.length;
+				}
+				for (byte[] bytes : encodedStrings) {
+					out.write(bytes);
+				}
+				for (Entry<String, Long> key : keyOffsets.entrySet()) {
+					out.writeInt(stringIds.get(key.getKey()));
+					out.writeInt((int)(long)key.getValue());
+				}
+				InputStream in = new FileInputStream(tmpFile);
+				copy(in, out);
+				in.close();
+			} finally {
+				out.close();
+				tmpFile.delete();
+			}
+			log.info("Wrote " + keyOffsets.size() + " expansions with " + strings.size() + " strings to " + file);
+		}
+
+		private static void copy(InputStream in, OutputStream out) throws IOException {
+			byte[] buffer = new byte[65536];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Precomputes the expansions of the given lemmas, or all WordNet lemmas if <code>lemmas</code>
+	 * is <code>null</code>. Related words are computed for all parts of speech, synonyms and
+	 * hypernyms only for nouns (as only these are used by {@link de.tudarmstadt.lt.pal.QueryMapper}).
+	 */
+	static void build(WordNetConnector wnc, File file, Collection<String> lemmas) throws IOException {
+		Writer writer = new Writer(file);
+		int numLemmas = 0;
+		for (POS pos : POS.values()) {
+			Collection<String> posLemmas = lemmas;
+			if (posLemmas == null) {
+				posLemmas = new ArrayList<String>();
+				Iterator<IIndexWord> it = wnc.dict.getIndexWordIterator(pos);
+				while (it.hasNext()) {
+					// Questions contain spaces, not underscores
+					posLemmas.add(it.next().getLemma().replace('_', ' '));
+				}
+			}
+			for (String lemma : posLemmas) {
+				if (wnc.dict.getIndexWord(lemma, pos) == null) {
+					continue;
+				}
+				writer.add(getRelatedWordsKey(lemma, pos), wnc.computeRelatedWords(lemma, pos));
+				if (pos == POS.NOUN) {
+					writer.add(getSynonymsAndHypernymsKey(lemma, pos), wnc.computeSynonymsAndHypernyms(lemma, pos));
+				}
+				numLemmas++;
+				if (numLemmas % 10000 == 0) {
+					log.info("Expanded " + numLemmas + " lemmas");
+				}
+			}
+		}
+		writer.close();
+	}
+
+	/**
+	 * Builds the expansion index of a WordNet dictionary.<br/>
+	 * Usage: <code>WordNetExpansionIndex &lt;WordNet dict dir&gt; [index file] [lemma list file]</code><br/>
+	 * By default, the index is written to the WordNet dictionary directory, where
+	 * {@link WordNetConnector} picks it up automatically, and all lemmas are expanded.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: WordNetExpansionIndex <WordNet dict dir> [index file] [lemma list file]");
+			System.exit(1);
+		}
+		Collection<String> lemmas = null;
+		if (args.length > 2) {
+			lemmas = new ArrayList<String>();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[2]), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					lemmas.add(line.trim());
+				}
+			}
+			reader.close();
+			// Each lemma only once
+			lemmas = new ArrayList<String>(new TreeSet<String>(lemmas));
+		}
+		File file = args.length > 1 ? new File(args[1]) : new File(args[0], FILE_NAME);
+		// Build from the live dictionary, not from a (possibly outdated) existing index
+		WordNetConnector wnc = new WordNetConnector(args[0], true, false);
+		build(wnc, file, lemmas);
+	}
+
+	/**
+	 * Returns the size of the index in bytes
+	 */
+	public int size() {
+		return data.capacity();
+	}
+
+	@Override
+	public String toString() {
+		return "WordNet expansion index [expansions: " + numKeys + ", strings: " + numStrings + ", bytes: " + size() + "]";
+	}
+}
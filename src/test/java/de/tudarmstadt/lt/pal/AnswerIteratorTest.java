@@ -0,0 +1,181 @@
+package de.tudarmstadt.lt.pal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+
+import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.AnswerIterator;
+import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.ResultType;
+import de.tudarmstadt.lt.pal.Triple.Constant;
+import de.tudarmstadt.lt.pal.Triple.Variable;
+
+public class AnswerIteratorTest extends TestCase {
+	private static final String DBPEDIA = "http://dbpedia.org/resource/";
+	private static final String[] BOOKS = { "Angels_&_Demons", "Digital_Fortress", "Inferno_(Dan_Brown_novel)" };
+
+	File tdbDirectory;
+	KnowledgeBaseConnector kb;
+	Query query;
+
+	@Override
+	protected void setUp() throws IOException {
+		tdbDirectory = File.createTempFile("pal-tdb", "");
+		tdbDirectory.delete();
+		tdbDirectory.mkdir();
+		String props = "tdb=" + tdbDirectory.getAbsolutePath().replace("\\", "/");
+		kb = new KnowledgeBaseConnector(new ByteArrayInputStream(props.getBytes("UTF-8")));
+		Model model = kb.tdbDataset.getDefaultModel();
+		for (String book : BOOKS) {
+			model.add(model.createResource(DBPEDIA + book),
+					model.createProperty("http://dbpedia.org/ontology/author"),
+					model.createResource(DBPEDIA + "Dan_Brown"));
+		}
+
+		query = new Query();
+		Variable book = new Variable("book", Variable.Type.Unknown);
+		query.vars.put(book.name, book);
+		query.focusVar = book;
+		query.triples.add(new Triple(book, new Constant("dbpedia-owl:author"), new Constant("dbpedia:Dan_Brown")));
+	}
+
+	@Override
+	protected void tearDown() {
+		kb.close();
+		delete(tdbDirectory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static Set<String> expectedAnswers() {
+		Set<String> expected = new HashSet<String>();
+		for (String book : BOOKS) {
+			expected.add(DBPEDIA + book);
+		}
+		return expected;
+	}
+
+	/**
+	 * Wraps the given query execution, counting calls to {@link QueryExecution#close()}
+	 */
+	private static QueryExecution countCloseCalls(final QueryExecution qexec, final int[] numCloseCalls) {
+		return (QueryExecution)Proxy.newProxyInstance(QueryExecution.class.getClassLoader(), new Class<?>[] { QueryExecution.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("close")) {
+					numCloseCalls[0]++;
+				}
+				try {
+					return method.invoke(qexec, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testEarlyStop() {
+		AnswerIterator it = kb.queryAnswers(query);
+		assertTrue(it.hasNext());
+		assertTrue(expectedAnswers().contains(it.next().value));
+		it.close();
+		assertFalse(it.hasNext());
+		// Incomplete results are not cached
+		assertEquals(0, kb.resultCache.size());
+		assertEquals(0, kb.emptyResultCache.size());
+	}
+
+	@Test
+	public void testFullReadIsCachedAndServedFromCache() {
+		AnswerIterator it = kb.queryAnswers(query);
+		Set<String> answers = new HashSet<String>();
+		while (it.hasNext()) {
+			answers.add(it.next().value);
+		}
+		assertEquals(expectedAnswers(), answers);
+		assertEquals(1, kb.resultCache.size());
+		try {
+			it.next();
+			fail();
+		} catch (NoSuchElementException e) {
+		}
+
+		// Served from the cache, even though the data is gone
+		kb.tdbDataset.getDefaultModel().removeAll();
+		answers.clear();
+		it = kb.queryAnswers(query);
+		while (it.hasNext()) {
+			answers.add(it.next().value);
+		}
+		it.close();
+		assertEquals(expectedAnswers(), answers);
+	}
+
+	@Test
+	public void testExhaustedIteratorIsClosed() {
+		int[] numCloseCalls = new int[1];
+		String queryStr = kb.queryToSPARQLFull(query);
+		QueryExecution qexec = countCloseCalls(QueryExecutionFactory.create(queryStr, kb.tdbDataset), numCloseCalls);
+		AnswerIterator it = kb.new AnswerIterator(qexec, queryStr, "book", KnowledgeBaseConnector.getResultCacheKey(ResultType.Answers, queryStr, "book"));
+		int numAnswers = 0;
+		while (it.hasNext()) {
+			it.next();
+			numAnswers++;
+		}
+		assertEquals(BOOKS.length, numAnswers);
+		assertEquals(1, numCloseCalls[0]);
+		// Closing again has no effect
+		it.close();
+		assertEquals(1, numCloseCalls[0]);
+	}
+
+	@Test
+	public void testFailureReturnsPartialResults() {
+		int[] numCloseCalls = new int[1];
+		String queryStr = kb.queryToSPARQLFull(query);
+		QueryExecution qexec = QueryExecutionFactory.create(queryStr, kb.tdbDataset);
+		AnswerIterator it = kb.new AnswerIterator(countCloseCalls(qexec, numCloseCalls), queryStr, "book", KnowledgeBaseConnector.getResultCacheKey(ResultType.Answers, queryStr, "book"));
+		assertTrue(it.hasNext());
+		String first = it.next().value;
+		// e.g. the deadline has passed
+		qexec.abort();
+		assertFalse(it.hasNext());
+		assertTrue(expectedAnswers().contains(first));
+		assertEquals(1, numCloseCalls[0]);
+		assertEquals(0, kb.resultCache.size());
+		assertEquals(0, kb.emptyResultCache.size());
+	}
+
+	@Test
+	public void testQueryAfterClose() {
+		kb.close();
+		// Closing again (e.g. in tearDown()) has no effect
+		kb.close();
+		// Queries fail (and are logged), but don't hit the closed dataset
+		assertFalse(kb.queryAnswers(query).hasNext());
+		assertFalse(kb.hasResults(query));
+	}
+}
@@ -0,0 +1,111 @@
+package de.tudarmstadt.lt.pal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.Triple.Constant;
+import de.tudarmstadt.lt.pal.Triple.Variable;
+
+public class AskAbortTest extends TestCase {
+	ServerSocket serverSocket;
+	/**
+	 * Connections of ASK requests, which are never answered
+	 */
+	List<Socket> stalledConnections = new LinkedList<Socket>();
+	CountDownLatch askReceived = new CountDownLatch(1);
+	KnowledgeBaseConnector kb;
+
+	@Override
+	protected void setUp() throws IOException {
+		serverSocket = new ServerSocket(0);
+		Thread server = new Thread("stalled-sparql-endpoint") {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						handle(serverSocket.accept());
+					}
+				} catch (IOException e) {
+					// Server socket closed
+				}
+			}
+		};
+		server.setDaemon(true);
+		server.start();
+		String props = "url=http://localhost:" + serverSocket.getLocalPort() + "/sparql";
+		kb = new KnowledgeBaseConnector(new ByteArrayInputStream(props.getBytes("UTF-8")));
+	}
+
+	/**
+	 * Stalls ASK requests, other requests (e.g. metadata queries) fail right away
+	 */
+	private void handle(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+		String requestLine = in.readLine();
+		if (requestLine != null && requestLine.contains("ASK")) {
+			synchronized (stalledConnections) {
+				stalledConnections.add(socket);
+			}
+			askReceived.countDown();
+		} else {
+			OutputStream out = socket.getOutputStream();
+			out.write("HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+			out.flush();
+			socket.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		kb.close();
+		serverSocket.close();
+		synchronized (stalledConnections) {
+			for (Socket socket : stalledConnections) {
+				socket.close();
+			}
+		}
+	}
+
+	@Test
+	public void testAbortStalledAsk() throws Exception {
+		final Query query = new Query();
+		Variable book = new Variable("book", Variable.Type.Unknown);
+		query.vars.put(book.name, book);
+		query.focusVar = book;
+		query.triples.add(new Triple(book, new Constant("dbpedia-owl:author"), new Constant("dbpedia:Dan_Brown")));
+
+		// Without time limit, like a query candidate evaluated with Deadline.NONE
+		final Deadline deadline = Deadline.NONE.fork();
+		final Boolean[] result = new Boolean[1];
+		Thread probe = new Thread() {
+			@Override
+			public void run() {
+				result[0] = kb.hasResults(query, deadline);
+			}
+		};
+		probe.start();
+		assertTrue(askReceived.await(10, TimeUnit.SECONDS));
+		long start = System.currentTimeMillis();
+		deadline.abort();
+		probe.join(10000);
+		assertFalse("ASK request was not aborted", probe.isAlive());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(Boolean.FALSE, result[0]);
+		// An aborted ASK query doesn't mean there are no results
+		assertEquals(0, kb.emptyResultCache.size());
+		assertEquals(0, kb.resultCache.size());
+	}
+}
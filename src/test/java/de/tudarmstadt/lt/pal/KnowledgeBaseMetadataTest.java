@@ -0,0 +1,98 @@
+package de.tudarmstadt.lt.pal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class KnowledgeBaseMetadataTest extends TestCase {
+	private static final String ENDPOINT = "http://dbpedia.org/sparql";
+	private static final List<String> GRAPHS = Arrays.asList("http://dbpedia.org", "http://dbpedia.org/categories");
+
+	File dir;
+	KnowledgeBaseMetadata metadata;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("pal-kb-metadata", "");
+		dir.delete();
+		dir.mkdir();
+
+		Map<String, Integer> classesInUse = new HashMap<String, Integer>();
+		classesInUse.put("http://dbpedia.org/ontology/Book", 31172);
+		classesInUse.put("http://dbpedia.org/ontology/EuropeanCapital", 47);
+		classesInUse.put("http://dbpedia.org/ontology/Capital", 256);
+		Set<String> objectProperties = new HashSet<String>();
+		objectProperties.add("http://dbpedia.org/ontology/author");
+		objectProperties.add("http://dbpedia.org/ontology/capital");
+		metadata = new KnowledgeBaseMetadata(classesInUse, objectProperties);
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		File file = KnowledgeBaseMetadata.getSnapshotFile(dir, ENDPOINT, GRAPHS);
+		assertNull(KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, GRAPHS));
+		metadata.writeSnapshot(file, ENDPOINT, GRAPHS);
+		KnowledgeBaseMetadata read = KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, GRAPHS);
+		assertNotNull(read);
+		assertEquals(metadata.classesInUse, read.classesInUse);
+		assertEquals(metadata.objectProperties, read.objectProperties);
+		assertEquals(metadata.classNames, read.classNames);
+		assertEquals(new HashSet<String>(metadata.getClassesWithNamePart("capital")),
+				new HashSet<String>(read.getClassesWithNamePart("capital")));
+		assertEquals(2, read.getClassesWithNamePart("capital").size());
+
+		// The order of graphs doesn't matter
+		List<String> reversedGraphs = Arrays.asList(GRAPHS.get(1), GRAPHS.get(0));
+		assertEquals(file, KnowledgeBaseMetadata.getSnapshotFile(dir, ENDPOINT, reversedGraphs));
+		assertNotNull(KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, reversedGraphs));
+
+		// Writing again replaces the existing snapshot
+		metadata.writeSnapshot(file, ENDPOINT, GRAPHS);
+		assertEquals(1, dir.listFiles().length);
+		assertEquals(metadata.classesInUse, KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, GRAPHS).classesInUse);
+	}
+
+	@Test
+	public void testDifferentConfiguration() throws IOException {
+		File file = KnowledgeBaseMetadata.getSnapshotFile(dir, ENDPOINT, GRAPHS);
+		metadata.writeSnapshot(file, ENDPOINT, GRAPHS);
+		assertFalse(file.equals(KnowledgeBaseMetadata.getSnapshotFile(dir, "http://localhost:8890/sparql", GRAPHS)));
+		// The snapshot file itself records the configuration it was created for
+		assertNull(KnowledgeBaseMetadata.readSnapshot(file, "http://localhost:8890/sparql", GRAPHS));
+		assertNull(KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, GRAPHS.subList(0, 1)));
+		assertNull(KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, null));
+	}
+
+	@Test
+	public void testOtherVersionIsIgnored() throws IOException {
+		File file = KnowledgeBaseMetadata.getSnapshotFile(dir, ENDPOINT, GRAPHS);
+		metadata.writeSnapshot(file, ENDPOINT, GRAPHS);
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		// Version follows the magic number
+		data.seek(4);
+		data.writeInt(Integer.MAX_VALUE);
+		data.close();
+		assertNull(KnowledgeBaseMetadata.readSnapshot(file, ENDPOINT, GRAPHS));
+	}
+}
@@ -0,0 +1,161 @@
+package de.tudarmstadt.lt.pal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import de.tudarmstadt.lt.pal.KnowledgeBaseConnector.PropertyCandidate;
+import de.tudarmstadt.lt.pal.Triple.TypeConstraint;
+import de.tudarmstadt.lt.pal.Triple.TypeConstraint.BasicType;
+
+public class PropertyCandidatePrefetchTest extends TestCase {
+	private static final String DBPEDIA = "http://dbpedia.org/resource/";
+	private static final String DBPEDIA_OWL = "http://dbpedia.org/ontology/";
+	private static final String DBPPROP = "http://dbpedia.org/property/";
+
+	/**
+	 * Resources in the form returned by {@link KnowledgeBaseConnector#getResourceCandidates(String, int)}:
+	 * prefixed, full (no valid local name / unknown namespace) and one without any triples
+	 */
+	private static final List<String> RESOURCES = Arrays.asList("dbpedia:Dan_Brown", "<http://dbpedia.org/resource/Angels_&_Demons>",
+			"<http://example.org/Robert_Langdon>", "dbpedia:Nobody");
+
+	File tdbDirectory;
+	KnowledgeBaseConnector kb;
+
+	@Override
+	protected void setUp() throws IOException {
+		tdbDirectory = File.createTempFile("pal-tdb", "");
+		tdbDirectory.delete();
+		tdbDirectory.mkdir();
+		String props = "tdb=" + tdbDirectory.getAbsolutePath().replace("\\", "/");
+		kb = new KnowledgeBaseConnector(new ByteArrayInputStream(props.getBytes("UTF-8")));
+		Model model = kb.tdbDataset.getDefaultModel();
+		Resource danBrown = model.createResource(DBPEDIA + "Dan_Brown");
+		Resource langdon = model.createResource("http://example.org/Robert_Langdon");
+		Resource book = model.createResource(DBPEDIA_OWL + "Book");
+		for (String name : new String[] { "Angels_&_Demons", "Digital_Fortress", "Inferno_(Dan_Brown_novel)" }) {
+			Resource r = model.createResource(DBPEDIA + name);
+			r.addProperty(RDF.type, book);
+			r.addProperty(model.createProperty(DBPEDIA_OWL + "author"), danBrown);
+			r.addLiteral(model.createProperty(DBPPROP + "pages"), 480);
+		}
+		Resource angels = model.createResource(DBPEDIA + "Angels_&_Demons");
+		angels.addProperty(model.createProperty(DBPPROP + "character"), langdon);
+		angels.addProperty(model.createProperty(DBPEDIA_OWL + "series"), langdon);
+		Resource film = model.createResource(DBPEDIA + "The_Da_Vinci_Code_(film)");
+		film.addProperty(RDF.type, model.createResource(DBPEDIA_OWL + "Film"));
+		film.addProperty(model.createProperty(DBPEDIA_OWL + "writer"), danBrown);
+		film.addProperty(model.createProperty(DBPPROP + "character"), langdon);
+		// Properties with the same count, i.e. ties that are ordered by property
+		danBrown.addProperty(model.createProperty(DBPEDIA_OWL + "notableWork"), angels);
+		danBrown.addProperty(model.createProperty(DBPEDIA_OWL + "notableWork"), model.createResource(DBPEDIA + "Digital_Fortress"));
+		danBrown.addProperty(model.createProperty(DBPEDIA_OWL + "genre"), model.createResource(DBPEDIA + "Thriller_(genre)"));
+		danBrown.addProperty(model.createProperty(DBPEDIA_OWL + "birthPlace"), model.createResource(DBPEDIA + "Exeter,_New_Hampshire"));
+		danBrown.addLiteral(model.createProperty(DBPPROP + "birthYear"), 1964);
+		danBrown.addProperty(model.createProperty("http://xmlns.com/foaf/0.1/name"), "Dan Brown", "en");
+		danBrown.addProperty(RDF.type, model.createResource(DBPEDIA_OWL + "Writer"));
+		langdon.addProperty(model.createProperty(DBPEDIA_OWL + "creator"), danBrown);
+	}
+
+	@Override
+	protected void tearDown() {
+		kb.close();
+		delete(tdbDirectory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static List<String> describe(Collection<PropertyCandidate> propCandidates) {
+		assertNotNull(propCandidates);
+		List<String> res = new LinkedList<String>();
+		for (PropertyCandidate pc : propCandidates) {
+			res.add(pc.uri + " \"" + pc.name + "\" " + pc.count);
+		}
+		return res;
+	}
+
+	/**
+	 * Checks that the prefetched candidates of all resources equal the candidates retrieved one by one
+	 */
+	private void assertPrefetchEqualsSingleQueries(TypeConstraint varTC) {
+		boolean queryResourceAsObject = varTC == null || varTC.basicType != BasicType.Literal;
+		kb.propCandidateCache.clear();
+		kb.prefetchPropertyCandidates(RESOURCES, varTC, Deadline.NONE);
+		List<List<String>> prefetched = new LinkedList<List<String>>();
+		for (String r : RESOURCES) {
+			prefetched.add(describe(kb.propCandidateCache.get(Arrays.<Object>asList(r, null, null, varTC))));
+			if (queryResourceAsObject) {
+				prefetched.add(describe(kb.propCandidateCache.get(Arrays.<Object>asList(null, r, varTC, null))));
+			} else {
+				assertNull(kb.propCandidateCache.get(Arrays.<Object>asList(null, r, varTC, null)));
+			}
+		}
+
+		kb.propCandidateCache.clear();
+		List<List<String>> single = new LinkedList<List<String>>();
+		for (String r : RESOURCES) {
+			single.add(describe(kb.getUnscoredPropertyCandidates(r, null, null, varTC, true, Deadline.NONE)));
+			if (queryResourceAsObject) {
+				single.add(describe(kb.getUnscoredPropertyCandidates(null, r, varTC, null, true, Deadline.NONE)));
+			}
+		}
+		assertEquals(String.valueOf(varTC), single, prefetched);
+	}
+
+	@Test
+	public void testWithoutTypeConstraint() {
+		assertPrefetchEqualsSingleQueries(null);
+		// Make sure the fixture covers ties and blacklisted properties
+		assertEquals(Arrays.asList(
+				DBPEDIA_OWL + "notableWork \"notable work\" 2",
+				DBPEDIA_OWL + "birthPlace \"birth place\" 1",
+				DBPEDIA_OWL + "genre \"genre\" 1",
+				DBPPROP + "birthYear \"birth year\" 1",
+				"http://xmlns.com/foaf/0.1/name \"name\" 1"),
+				describe(kb.propCandidateCache.get(Arrays.<Object>asList("dbpedia:Dan_Brown", null, null, null))));
+	}
+
+	@Test
+	public void testResourceTypeConstraint() {
+		assertPrefetchEqualsSingleQueries(new TypeConstraint(BasicType.Resource, new MappedString(DBPEDIA_OWL + "Book")));
+		assertPrefetchEqualsSingleQueries(new TypeConstraint(BasicType.Resource, new MappedString(DBPEDIA_OWL + "Film")));
+	}
+
+	@Test
+	public void testLiteralTypeConstraint() {
+		assertPrefetchEqualsSingleQueries(new TypeConstraint(BasicType.Literal, null));
+		assertPrefetchEqualsSingleQueries(new TypeConstraint(BasicType.Literal, new MappedString("_number_")));
+	}
+
+	@Test
+	public void testCachedResourcesAreSkipped() {
+		kb.prefetchPropertyCandidates(RESOURCES, null, Deadline.NONE);
+		List<String> expected = describe(kb.propCandidateCache.get(Arrays.<Object>asList(null, "dbpedia:Dan_Brown", null, null)));
+		assertEquals(3, expected.size());
+		// Not queried again, otherwise the cached candidates would be replaced by empty ones
+		kb.tdbDataset.getDefaultModel().removeAll();
+		kb.prefetchPropertyCandidates(RESOURCES, null, Deadline.NONE);
+		assertEquals(expected, describe(kb.propCandidateCache.get(Arrays.<Object>asList(null, "dbpedia:Dan_Brown", null, null))));
+	}
+}
@@ -0,0 +1,79 @@
+package de.tudarmstadt.lt.pal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.Triple.Constant;
+import de.tudarmstadt.lt.pal.Triple.Variable;
+import de.tudarmstadt.lt.pal.util.ComparablePair;
+
+public class QueryCandidateEnumeratorTest extends TestCase {
+	private static String toString(Query q) {
+		StringBuilder sb = new StringBuilder();
+		for (Triple t : q.triples) {
+			sb.append(t.predicate.name).append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Compares the enumeration order with a stable sort of the full cartesian product
+	 */
+	@Test
+	public void testSameOrderAsCartesianProduct() {
+		Random random = new Random(42);
+		float[] scores = { 1.0f, 0.5f, 0.5f, 0.25f, 0.1f };
+		for (int run = 0; run < 50; run++) {
+			QueryCandidateEnumerator enumerator = new QueryCandidateEnumerator();
+			List<ComparablePair<Query, Float>> expected = new LinkedList<ComparablePair<Query, Float>>();
+			int numVariants = 1 + random.nextInt(3);
+			for (int v = 0; v < numVariants; v++) {
+				Query variant = new Query();
+				variant.vars.put("x", new Variable("x", Variable.Type.Unknown));
+				float variantScore = scores[random.nextInt(scores.length)];
+				int numTriples = random.nextInt(4);
+				List<List<ComparablePair<Triple, Float>>> tripleCandidates = new ArrayList<List<ComparablePair<Triple, Float>>>();
+				List<ComparablePair<Query, Float>> product = new LinkedList<ComparablePair<Query, Float>>();
+				product.add(new ComparablePair<Query, Float>(new Query(), variantScore));
+				for (int t = 0; t < numTriples; t++) {
+					List<ComparablePair<Triple, Float>> candidates = new ArrayList<ComparablePair<Triple, Float>>();
+					int numCandidates = random.nextInt(5);
+					for (int c = 0; c < numCandidates; c++) {
+						Triple triple = new Triple(variant.vars.get("x"), new Constant(v + "-" + t + "-" + c), new Constant("r"));
+						candidates.add(new ComparablePair<Triple, Float>(triple, scores[random.nextInt(scores.length)]));
+					}
+					tripleCandidates.add(candidates);
+					List<ComparablePair<Query, Float>> _product = new LinkedList<ComparablePair<Query, Float>>();
+					for (ComparablePair<Query, Float> q : product) {
+						for (ComparablePair<Triple, Float> c : candidates) {
+							Query _q = new Query();
+							_q.triples.addAll(q.key.triples);
+							_q.triples.add(c.key);
+							_product.add(new ComparablePair<Query, Float>(_q, q.value * c.value));
+						}
+					}
+					product = _product;
+				}
+				Collections.sort(product);
+				expected.addAll(product);
+				enumerator.addVariant(variant, variantScore, tripleCandidates);
+			}
+			Collections.sort(expected);
+
+			for (ComparablePair<Query, Float> e : expected) {
+				assertTrue(enumerator.hasNext());
+				ComparablePair<Query, Float> actual = enumerator.next();
+				assertEquals(e.value, actual.value);
+				assertEquals(toString(e.key), toString(actual.key));
+			}
+			assertFalse(enumerator.hasNext());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package de.tudarmstadt.lt.pal;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.Triple.Constant;
+import de.tudarmstadt.lt.pal.Triple.TypeConstraint;
+import de.tudarmstadt.lt.pal.Triple.Variable;
+
+public class QueryTest extends TestCase {
+	private static Query createQuery(String bookVarName, String cityVarName, boolean reverse, TypeConstraint bookType) {
+		Query q = new Query();
+		Variable book = new Variable(bookVarName, Variable.Type.Unknown);
+		book.mappedType = bookType;
+		Variable city = new Variable(cityVarName, Variable.Type.Place);
+		q.vars.put(book.name, book);
+		q.vars.put(city.name, city);
+		q.focusVar = city;
+		Triple t1 = new Triple(book, new Constant("dbpedia-owl:author"), new Constant("dbpedia:Dan_Brown"));
+		Triple t2 = new Triple(book, new Constant("dbpedia-owl:publisherLocation"), city);
+		if (reverse) {
+			q.triples.add(t2);
+			q.triples.add(t1);
+		} else {
+			q.triples.add(t1);
+			q.triples.add(t2);
+		}
+		return q;
+	}
+
+	@Test
+	public void testCanonicalForm() {
+		TypeConstraint bookType = new TypeConstraint(TypeConstraint.BasicType.Resource, new MappedString("dbpedia-owl:Book"));
+		Query q1 = createQuery("book", "city", false, bookType);
+		Query q2 = createQuery("x", "y", true, bookType);
+		assertEquals(q1.getCanonicalForm(), q2.getCanonicalForm());
+
+		// Different type constraint
+		Query q3 = createQuery("book", "city", false, null);
+		assertFalse(q1.getCanonicalForm().equals(q3.getCanonicalForm()));
+
+		// Different focus variable
+		Query q4 = createQuery("book", "city", false, bookType);
+		q4.focusVar = q4.vars.get("book");
+		assertFalse(q1.getCanonicalForm().equals(q4.getCanonicalForm()));
+	}
+
+	@Test
+	public void testEquals() {
+		TypeConstraint bookType = new TypeConstraint(TypeConstraint.BasicType.Resource, new MappedString("dbpedia-owl:Book"));
+		Query q1 = createQuery("book", "city", false, bookType);
+		Query q2 = createQuery("book", "city", true, bookType);
+		assertEquals(q1, q2);
+		assertEquals(q1.hashCode(), q2.hashCode());
+		assertFalse(q1.equals(createQuery("book", "city", false, null)));
+	}
+}
@@ -0,0 +1,89 @@
+package de.tudarmstadt.lt.pal.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.lucene.LuceneLabelIndex.Label;
+
+public class LuceneLabelIndexTest extends TestCase {
+	private static final String DBPEDIA = "http://dbpedia.org/resource/";
+
+	File dir;
+	LuceneLabelIndex index;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("pal-label-index", "");
+		dir.delete();
+		dir.mkdir();
+		LuceneLabelIndex.Writer writer = new LuceneLabelIndex.Writer(dir);
+		writer.addLabel(DBPEDIA + "Dan_Brown", "Dan Brown");
+		writer.addLabel(DBPEDIA + "Dan_Brown", "Daniel Gerhard Brown");
+		writer.addLabel(DBPEDIA + "Brown_University", "Brown University");
+		writer.addLabel(DBPEDIA + "Dan_Aykroyd", "Dan Aykroyd");
+		writer.addLabel(DBPEDIA + "The_Who", "The Who");
+		writer.close();
+		index = new LuceneLabelIndex(dir);
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		index.close();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static Set<String> describe(List<Label> labels) {
+		Set<String> res = new HashSet<String>();
+		for (Label label : labels) {
+			res.add(label.toString());
+		}
+		return res;
+	}
+
+	private static Set<String> labels(String... labels) {
+		Set<String> res = new HashSet<String>();
+		for (int i = 0; i < labels.length; i += 2) {
+			res.add(new Label(DBPEDIA + labels[i], labels[i + 1]).toString());
+		}
+		return res;
+	}
+
+	@Test
+	public void testSearch() {
+		assertEquals(labels("Dan_Brown", "Dan Brown"), describe(index.search("Dan Brown", 10)));
+		// Case-insensitive, the words have to be adjacent and in order
+		assertEquals(labels("Dan_Brown", "Dan Brown"), describe(index.search("dan brown", 10)));
+		assertEquals(labels(), describe(index.search("Brown Dan", 10)));
+		assertEquals(labels(), describe(index.search("Dan Bro", 10)));
+		assertEquals(labels("Dan_Brown", "Dan Brown", "Dan_Brown", "Daniel Gerhard Brown", "Brown_University", "Brown University"),
+				describe(index.search("Brown", 10)));
+		// Stop words are indexed
+		assertEquals(labels("The_Who", "The Who"), describe(index.search("the who", 10)));
+		assertEquals(labels(), describe(index.search("", 10)));
+		assertEquals(1, index.search("Brown", 1).size());
+	}
+
+	@Test
+	public void testSearchPrefix() {
+		assertEquals(labels("Dan_Brown", "Dan Brown"), describe(index.searchPrefix("Dan Bro", 10)));
+		assertEquals(labels("Dan_Brown", "Dan Brown", "Dan_Brown", "Daniel Gerhard Brown", "Dan_Aykroyd", "Dan Aykroyd"),
+				describe(index.searchPrefix("dan", 10)));
+		// Only the last word may be incomplete
+		assertEquals(labels(), describe(index.searchPrefix("Da Brown", 10)));
+		assertEquals(labels("Dan_Brown", "Daniel Gerhard Brown"), describe(index.searchPrefix("gerhard dan", 10)));
+		assertEquals(labels(), describe(index.searchPrefix("", 10)));
+	}
+}
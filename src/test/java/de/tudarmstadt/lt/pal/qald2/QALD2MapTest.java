@@ -16,7 +16,8 @@ import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -32,11 +33,15 @@ import de.tudarmstadt.lt.pal.util.DateUtil;
 @RunWith(Parameterized.class)
 public class QALD2MapTest {
 	QALD2Entry entry;
-	KnowledgeBaseConnector kb;
-	QueryMapper tripleMapper;
+	static KnowledgeBaseConnector kb;
+	static QueryMapper tripleMapper;
 	
 	public QALD2MapTest(String question, QALD2Entry entry) throws IOException {
 		this.entry = entry;
+	}
+	
+	@BeforeClass
+	public static void init() throws IOException {
 		kb = new KnowledgeBaseConnector("src/main/resources/sparql_endpoints/dbpedia-37-local.properties");
 		tripleMapper = new QueryMapper(kb);
 	}
@@ -101,8 +106,9 @@ public class QALD2MapTest {
 		}
 	}
 	
-	@After
-	public void cleanup() {
+	@AfterClass
+	public static void close() {
+		tripleMapper.close();
 		kb.close();
 	}
 }
@@ -13,6 +13,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -41,7 +43,16 @@ public class QALD2Test {
 	static KnowledgeBaseConnector kb;
 	static QueryMapper tripleMapper;
 	static StanfordPseudoQueryBuilder pseudoQueryBuilder = new StanfordPseudoQueryBuilder();
-	static StanfordDependencyParser depParser = new StanfordDependencyParser();
+	/**
+	 * Parser profile to evaluate, e.g. -DparserProfile=shift-reduce
+	 */
+	static StanfordDependencyParser depParser = new StanfordDependencyParser(
+			System.getProperty("parserProfile", StanfordDependencyParser.DEFAULT_PROFILE), null, Runtime.getRuntime().availableProcessors());
+	/**
+	 * Total time spent parsing questions (in nanoseconds)
+	 */
+	private static AtomicLong parseTime = new AtomicLong(0);
+	private static AtomicInteger numParsedQuestions = new AtomicInteger(0);
 	private static float recall = 0.0f;
 	private static float precision = 0.0f;
 	private static int correctQuestions = 0;
@@ -75,7 +86,10 @@ public class QALD2Test {
 	@Test
 	public void test() throws ParseException {
 		Set<String> answers = new HashSet<String>();
+		long parseStartTime = System.nanoTime();
 		SemanticGraph dependencies = depParser.parse(entry.question);
+		parseTime.addAndGet(System.nanoTime() - parseStartTime);
+		numParsedQuestions.incrementAndGet();
 		Query pseudoQuery = pseudoQueryBuilder.buildPseudoQuery(dependencies);
 		assertTrue(pseudoQuery.triples != null);
 		assertTrue(pseudoQuery.triples.size() > 0);
@@ -158,7 +172,6 @@ public class QALD2Test {
 	
 	@After
 	public void cleanup() {
-		kb.close();
 		System.out.println("Recall: " + recall);
 		System.out.println("Precision: " + precision);
 		System.out.println("Correct questions: " + correctQuestions);
@@ -167,11 +180,21 @@ public class QALD2Test {
 		System.out.println("Unanswered questions: " + (100 - answeredQuestions));
 	}
 	
+	@AfterClass
+	public static void close() {
+		tripleMapper.close();
+		kb.close();
+	}
+	
 	@AfterClass
 	public static void printResults() {
 		// no answer is always a precision of 1
 		int unansweredQuestions = 100 - answeredQuestions;
 		precision += unansweredQuestions;
+		int n = numParsedQuestions.get();
+		System.out.println(depParser);
+		System.out.println("Parser profile: " + depParser.getProfile());
+		System.out.println("Avg. parse time: " + (n == 0 ? 0 : parseTime.get() / n / 1000000) + " ms");
 		System.out.println("Recall: " + recall);
 		System.out.println("Precision: " + precision);
 		System.out.println("F1 score: " + 2*(recall*precision)/(recall+precision));
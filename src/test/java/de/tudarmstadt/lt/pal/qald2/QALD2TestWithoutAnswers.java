@@ -20,7 +20,6 @@ import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.XMLWriter;
-import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -163,8 +162,9 @@ public class QALD2TestWithoutAnswers {
 		}
 	}
 	
-	@After
-	public void cleanup() {
+	@AfterClass
+	public static void close() {
+		tripleMapper.close();
 		kb.close();
 	}
 	
@@ -0,0 +1,154 @@
+package de.tudarmstadt.lt.pal.stanford;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+
+public class StanfordParseCacheTest extends TestCase {
+	private static final String SENTENCE = "Which books by Dan Brown were published in Germany?";
+	private static SemanticGraph tree;
+
+	File dir;
+
+	private static synchronized SemanticGraph getTree() {
+		if (tree == null) {
+			tree = new StanfordDependencyParser(1).parse(SENTENCE);
+		}
+		return tree;
+	}
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = File.createTempFile("pal-parse-cache", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Describes tokens, edges (in iteration order) and roots of the tree
+	 */
+	private static String describe(SemanticGraph tree) {
+		StringBuilder sb = new StringBuilder();
+		for (IndexedWord w : tree.vertexSet()) {
+			sb.append(w.index()).append(":").append(w.word()).append("/").append(w.tag()).append("/").append(w.lemma())
+			  .append("[").append(w.beginPosition()).append(",").append(w.endPosition()).append("] ");
+		}
+		sb.append("\n");
+		for (SemanticGraphEdge e : tree.edgeIterable()) {
+			sb.append(e.getRelation()).append("(").append(e.getGovernor().word()).append("-").append(e.getGovernor().index())
+			  .append(", ").append(e.getDependent().word()).append("-").append(e.getDependent().index()).append(") ");
+		}
+		sb.append("\nroots: ");
+		for (IndexedWord root : tree.getRoots()) {
+			sb.append(root.word()).append("-").append(root.index()).append(" ");
+			sb.append("children: ").append(tree.getChildList(root)).append(" ");
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		String expected = describe(getTree());
+		// Collapsed relation names have to survive the round-trip
+		assertTrue(expected, expected.contains("prep_in("));
+		assertTrue(expected, expected.contains("prep_by("));
+
+		StanfordParseCache cache = new StanfordParseCache(dir);
+		String key = StanfordParseCache.getKey(SENTENCE, "test");
+		assertNull(cache.get(key));
+		cache.put(key, getTree());
+		assertEquals(1, cache.size());
+		SemanticGraph cached = cache.get(key);
+		assertEquals(expected, describe(cached));
+		assertEquals(getTree().getFirstRoot().word(), cached.getFirstRoot().word());
+		// Whitespace is normalized, the parser configuration is part of the key
+		assertEquals(key, StanfordParseCache.getKey("  Which books by Dan Brown  were published in Germany? ", "test"));
+		assertNull(cache.get(StanfordParseCache.getKey(SENTENCE, "other")));
+		cache.close();
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		String key = StanfordParseCache.getKey(SENTENCE, "test");
+		StanfordParseCache cache = new StanfordParseCache(dir);
+		cache.put(key, getTree());
+		cache.close();
+
+		cache = new StanfordParseCache(dir);
+		assertEquals(1, cache.size());
+		assertEquals(describe(getTree()), describe(cache.get(key)));
+		cache.close();
+	}
+
+	@Test
+	public void testTruncatedLastRecord() throws IOException {
+		String key1 = StanfordParseCache.getKey(SENTENCE, "test");
+		String key2 = StanfordParseCache.getKey(SENTENCE, "test2");
+		StanfordParseCache cache = new StanfordParseCache(dir);
+		cache.put(key1, getTree());
+		cache.put(key2, getTree());
+		cache.close();
+
+		// e.g. the process was killed while writing the last entry
+		File file = new File(dir, "parses.bin");
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		data.setLength(data.length() - 10);
+		data.close();
+
+		cache = new StanfordParseCache(dir);
+		assertEquals(1, cache.size());
+		assertEquals(describe(getTree()), describe(cache.get(key1)));
+		assertNull(cache.get(key2));
+		// The incomplete entry has been removed, so that new entries can be appended
+		long lengthWithOneEntry = file.length();
+		cache.put(key2, getTree());
+		cache.close();
+		assertTrue(file.length() > lengthWithOneEntry);
+
+		cache = new StanfordParseCache(dir);
+		assertEquals(2, cache.size());
+		assertEquals(describe(getTree()), describe(cache.get(key2)));
+		cache.close();
+	}
+
+	@Test
+	public void testVersionMismatch() throws IOException {
+		String key = StanfordParseCache.getKey(SENTENCE, "test");
+		StanfordParseCache cache = new StanfordParseCache(dir);
+		cache.put(key, getTree());
+		cache.close();
+
+		File file = new File(dir, "parses.bin");
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		// Version follows the magic number
+		data.seek(4);
+		data.writeInt(Integer.MAX_VALUE);
+		data.close();
+
+		cache = new StanfordParseCache(dir);
+		assertEquals(0, cache.size());
+		assertNull(cache.get(key));
+		// Only the header of the new file is left
+		assertEquals(8, file.length());
+		cache.close();
+	}
+}
@@ -0,0 +1,54 @@
+package de.tudarmstadt.lt.pal.util;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class BoundedCacheTest extends TestCase {
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>("test", 2, 0);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		// "a" is now more recently used than "b"
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testWeightBound() {
+		BoundedCache<String, String> cache = new BoundedCache<String, String>("test", 10, 0, new BoundedCache.Weigher<String, String>() {
+			@Override
+			public int weigh(String key, String value) {
+				return value.length();
+			}
+		});
+		cache.put("a", "12345");
+		cache.put("b", "1234");
+		assertEquals(9, cache.getWeight());
+		cache.put("c", "12");
+		assertEquals(6, cache.getWeight());
+		assertNull(cache.get("a"));
+		// Too heavy to be cached at all
+		cache.put("d", "12345678901");
+		assertNull(cache.get("d"));
+		assertEquals(6, cache.getWeight());
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>("test", 10, 1);
+		cache.put("a", 1);
+		Thread.sleep(10);
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getExpirationCount());
+	}
+}
@@ -0,0 +1,164 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyNodePattern;
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyPattern;
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyPatternIndex;
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.DependencyRelPattern;
+import de.tudarmstadt.lt.pal.util.DependencyPatternParser.TripleElementMapping;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.trees.EnglishGrammaticalRelations;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+
+public class DependencyPatternParserTest extends TestCase {
+	private static final String[] PATTERN_FILES = { "dep_patterns.txt", "focus_patterns.txt", "type_patterns.txt" };
+	/**
+	 * lemma, tag
+	 */
+	private static final String[][] WORDS = {
+		{ "be", "VBZ" }, { "have", "VBD" }, { "do", "VBP" }, { "what", "WP" }, { "Who", "WP" }, { "which", "WDT" },
+		{ "where", "WRB" }, { "book", "NN" }, { "Brown", "NNP" }, { "city", "NNS" }, { "many", "JJ" },
+		{ "write", "VBN" }, { "in", "IN" }, { "nn", "NN" }
+	};
+
+	private static Collection<DependencyPattern> parse(String file) {
+		return DependencyPatternParser.parse(DependencyPatternParserTest.class.getClassLoader().getResourceAsStream(file));
+	}
+
+	private static List<GrammaticalRelation> getRelations() {
+		List<GrammaticalRelation> rels = new ArrayList<GrammaticalRelation>(EnglishGrammaticalRelations.values());
+		rels.add(GrammaticalRelation.DEPENDENT);
+		rels.add(GrammaticalRelation.ROOT);
+		// Collapsed relations, matched via their parents (e.g. prep_of -> prep -> mod -> dep)
+		for (String specific : new String[] { "of", "in", "by", "many" }) {
+			rels.add(EnglishGrammaticalRelations.getPrep(specific));
+			rels.add(EnglishGrammaticalRelations.getPrepC(specific));
+		}
+		rels.add(EnglishGrammaticalRelations.getConj("and"));
+		return rels;
+	}
+
+	private static List<IndexedWord> getWords() {
+		List<IndexedWord> words = new ArrayList<IndexedWord>();
+		for (String[] lemmaAndTag : WORDS) {
+			IndexedWord word = new IndexedWord(new CoreLabel());
+			word.setLemma(lemmaAndTag[0]);
+			word.setTag(lemmaAndTag[1]);
+			words.add(word);
+		}
+		return words;
+	}
+
+	/**
+	 * Matches the pattern using regular expressions only, like before patterns were precompiled
+	 */
+	private static boolean regexMatches(DependencyPattern pattern, GrammaticalRelation rel, IndexedWord x, IndexedWord y, IndexedWord z) {
+		if (pattern.subjectMapping == TripleElementMapping.X && x == null ||
+			pattern.predicateMapping == TripleElementMapping.X && x == null ||
+			pattern.objectMapping == TripleElementMapping.X && x == null) {
+			return false;
+		}
+		return regexMatches(pattern.yPatterns, y) && regexMatches(pattern.relPatterns, rel) && regexMatches(pattern.zPatterns, z);
+	}
+
+	private static boolean regexMatches(Collection<DependencyNodePattern> patterns, IndexedWord node) {
+		for (DependencyNodePattern p : patterns) {
+			if (node.lemma().toLowerCase().matches(p.lemma) &&
+				(p.tag == null || node.tag().toLowerCase().matches(p.tag))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean regexMatches(Collection<DependencyRelPattern> patterns, GrammaticalRelation rel) {
+		for (DependencyRelPattern p : patterns) {
+			boolean nameMatches = false;
+			for (GrammaticalRelation r = rel; r != null; r = r.getParent()) {
+				nameMatches |= r.getShortName().matches(p.name);
+			}
+			if (nameMatches && (p.specific == null || rel.getSpecific() != null && rel.getSpecific().matches(p.specific))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testIndexedMatchingEqualsRegexMatching() {
+		List<GrammaticalRelation> rels = getRelations();
+		List<IndexedWord> words = getWords();
+		IndexedWord[] xs = { null, words.get(0) };
+		for (String file : PATTERN_FILES) {
+			Collection<DependencyPattern> patterns = parse(file);
+			assertFalse(file, patterns.isEmpty());
+			DependencyPatternIndex index = new DependencyPatternIndex(patterns);
+			assertEquals(new ArrayList<DependencyPattern>(patterns), index.getPatterns());
+			int numMatches = 0;
+			for (GrammaticalRelation rel : rels) {
+				List<DependencyPattern> candidates = index.getCandidates(rel);
+				for (IndexedWord x : xs) {
+					for (IndexedWord y : words) {
+						for (IndexedWord z : words) {
+							List<DependencyPattern> expected = new LinkedList<DependencyPattern>();
+							for (DependencyPattern p : patterns) {
+								if (regexMatches(p, rel, x, y, z)) {
+									expected.add(p);
+								}
+							}
+							List<DependencyPattern> actual = new LinkedList<DependencyPattern>();
+							for (DependencyPattern p : candidates) {
+								if (p.matches(rel, x, y, z)) {
+									actual.add(p);
+								}
+							}
+							assertEquals(file + " " + rel + "(" + y.lemma() + ", " + z.lemma() + ")", expected, actual);
+							numMatches += expected.size();
+						}
+					}
+				}
+			}
+			// Make sure the relations and words actually trigger the patterns
+			assertTrue(file, numMatches > 0);
+		}
+	}
+
+	@Test
+	public void testParentRelationNames() {
+		Collection<DependencyPattern> patterns = parse("dep_patterns.txt");
+		DependencyPatternIndex index = new DependencyPatternIndex(patterns);
+		// "prep" patterns are indexed by their literal relation name and apply to prep_of
+		List<DependencyPattern> candidates = index.getCandidates(EnglishGrammaticalRelations.getPrep("of"));
+		List<DependencyPattern> nsubjCandidates = index.getCandidates(EnglishGrammaticalRelations.NOMINAL_SUBJECT);
+		for (DependencyPattern p : patterns) {
+			boolean matchesPrepOf = regexMatches(p.relPatterns, EnglishGrammaticalRelations.getPrep("of"));
+			assertTrue(p.toString(), !matchesPrepOf || candidates.contains(p));
+			boolean matchesNsubj = regexMatches(p.relPatterns, EnglishGrammaticalRelations.NOMINAL_SUBJECT);
+			assertTrue(p.toString(), !matchesNsubj || nsubjCandidates.contains(p));
+		}
+		// The "subj" pattern applies to nsubj via its parent, but not to prep_of
+		assertTrue(nsubjCandidates.size() < patterns.size());
+		assertTrue(candidates.size() < patterns.size());
+	}
+
+	@Test
+	public void testStringMatcher() {
+		String[] patterns = { ".*", "be", "be|have", ".*w.*", "w.*", "nn", "nn.*", "n.*", "prep", "" };
+		String[] strings = { "", "be", "have", "bee", "w", "wp", "wdt", "how", "nn", "nnp", "n", "prep", "prepc", "b.e" };
+		for (String pattern : patterns) {
+			DependencyPatternParser.StringMatcher matcher = new DependencyPatternParser.StringMatcher(pattern);
+			for (String s : strings) {
+				assertEquals(pattern + " " + s, s.matches(pattern), matcher.matches(s));
+			}
+		}
+	}
+}
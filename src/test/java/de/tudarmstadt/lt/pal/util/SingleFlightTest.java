@@ -0,0 +1,162 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class SingleFlightTest extends TestCase {
+	@Test
+	public void testConcurrentCallersShareExecution() throws InterruptedException {
+		final SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>("test");
+		final AtomicInteger numExecutions = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final int numThreads = 8;
+		final Integer[] results = new Integer[numThreads];
+		final Callable<Integer> computation = new Callable<Integer>() {
+			@Override
+			public Integer call() throws InterruptedException {
+				numExecutions.incrementAndGet();
+				started.countDown();
+				release.await();
+				return 42;
+			}
+		};
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					results[index] = singleFlight.execute("key", computation);
+				}
+			};
+		}
+		threads[0].start();
+		started.await();
+		for (int i = 1; i < numThreads; i++) {
+			threads[i].start();
+		}
+		// Wait until all other threads are waiting for the running computation
+		while (singleFlight.getSharedCount() < numThreads - 1) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(1, numExecutions.get());
+		for (Integer result : results) {
+			assertEquals(Integer.valueOf(42), result);
+		}
+		assertEquals(0, singleFlight.getNumInFlight());
+
+		// Finished computations are not reused
+		assertEquals(Integer.valueOf(42), singleFlight.execute("key", computation));
+		assertEquals(2, numExecutions.get());
+	}
+
+	@Test
+	public void testExceptionIsRethrown() {
+		SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>("test");
+		try {
+			singleFlight.execute("key", new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		assertEquals(0, singleFlight.getNumInFlight());
+	}
+
+	@Test
+	public void testJoiningCallerKeepsItsOwnTimeout() throws InterruptedException {
+		final SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>("test");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Integer[] ownerResult = new Integer[1];
+		final Callable<Integer> slowComputation = new Callable<Integer>() {
+			@Override
+			public Integer call() throws InterruptedException {
+				started.countDown();
+				release.await();
+				return 42;
+			}
+		};
+		Thread owner = new Thread() {
+			@Override
+			public void run() {
+				ownerResult[0] = singleFlight.execute("key", slowComputation);
+			}
+		};
+		owner.start();
+		started.await();
+
+		// Gives up after its own timeout while the computation is still running
+		long start = System.currentTimeMillis();
+		Integer result = singleFlight.execute("key", slowComputation, 50);
+		long elapsed = System.currentTimeMillis() - start;
+		assertNull(result);
+		assertTrue("Waited " + elapsed + " ms", elapsed < 5000);
+		assertEquals(1, singleFlight.getTimeoutCount());
+		assertEquals(1, singleFlight.getNumInFlight());
+
+		release.countDown();
+		owner.join();
+		assertEquals(Integer.valueOf(42), ownerResult[0]);
+		assertEquals(1, singleFlight.getExecutionCount());
+	}
+
+	@Test
+	public void testJoiningCallerRetriesFailedComputation() throws InterruptedException {
+		final SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>("test");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		// The first computation fails (e.g. because its caller ran out of time)
+		Thread owner = new Thread() {
+			@Override
+			public void run() {
+				singleFlight.execute("key", new Callable<Integer>() {
+					@Override
+					public Integer call() throws InterruptedException {
+						started.countDown();
+						release.await();
+						return null;
+					}
+				});
+			}
+		};
+		owner.start();
+		started.await();
+		final Integer[] joinerResult = new Integer[1];
+		Thread joiner = new Thread() {
+			@Override
+			public void run() {
+				joinerResult[0] = singleFlight.execute("key", new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return 42;
+					}
+				}, 10000);
+			}
+		};
+		joiner.start();
+		while (singleFlight.getSharedCount() < 1) {
+			Thread.sleep(1);
+		}
+		release.countDown();
+		owner.join();
+		joiner.join();
+		assertEquals(Integer.valueOf(42), joinerResult[0]);
+		assertEquals(2, singleFlight.getExecutionCount());
+		assertEquals(0, singleFlight.getTimeoutCount());
+	}
+}
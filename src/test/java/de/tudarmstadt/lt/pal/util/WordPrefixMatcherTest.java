@@ -0,0 +1,34 @@
+package de.tudarmstadt.lt.pal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class WordPrefixMatcherTest extends TestCase {
+	@Test
+	public void testMatch() {
+		WordPrefixMatcher matcher = new WordPrefixMatcher(Arrays.asList("abc", "def", "de", "bc", "ef", "abc def", "", "abc"));
+		assertEquals(Arrays.asList(0, 1, 2, 5, 6, 7), matcher.match("abc def"));
+		assertEquals(Arrays.asList(6), matcher.match("xyz"));
+	}
+
+	@Test
+	public void testSameAsStringUtil() {
+		List<String> needles = Arrays.asList("birth", "birth place", "place", "pla", "lace", "of", "", "death place", " place", "place ");
+		List<String> haystacks = Arrays.asList("birth place", "place of birth", "death place", "birthplace", "", "de facto place", "place  ");
+		WordPrefixMatcher matcher = new WordPrefixMatcher(needles);
+		for (String haystack : haystacks) {
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int i = 0; i < needles.size(); i++) {
+				if (StringUtil.hasPartStartingWith(haystack, needles.get(i))) {
+					expected.add(i);
+				}
+			}
+			assertEquals(haystack, expected, matcher.match(haystack));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package de.tudarmstadt.lt.pal.wordnet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import de.tudarmstadt.lt.pal.MappedString;
+import de.tudarmstadt.lt.pal.MappedString.TraceElement;
+import edu.mit.jwi.item.POS;
+
+public class WordNetExpansionIndexTest extends TestCase {
+	private static final List<String> LEMMAS = Arrays.asList("author", "book", "city", "publish", "write", "tall");
+
+	WordNetConnector wnc;
+	File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		String wnHome = System.getenv("WNHOME");
+		assertNotNull("WNHOME environment variable not set.", wnHome);
+		wnc = new WordNetConnector(wnHome + "/dict", false, false);
+		file = File.createTempFile("pal-expansion-index", ".bin");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Lists the entries of the expansion in iteration order, including scores and traces
+	 */
+	private static List<String> describe(Map<MappedString, Float> expansion) {
+		List<String> res = new LinkedList<String>();
+		for (Entry<MappedString, Float> entry : expansion.entrySet()) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(entry.getKey().value).append(" ").append(entry.getValue());
+			for (TraceElement te : entry.getKey().trace.toList()) {
+				sb.append(" | ").append(te.value).append(" ").append(te.url);
+			}
+			res.add(sb.toString());
+		}
+		return res;
+	}
+
+	@Test
+	public void testExpansionsMatchComputedExpansions() throws IOException {
+		WordNetExpansionIndex.build(wnc, file, LEMMAS);
+		WordNetExpansionIndex index = new WordNetExpansionIndex(file);
+		int numExpansions = 0;
+		for (POS pos : POS.values()) {
+			for (String lemma : LEMMAS) {
+				Map<MappedString, Float> relatedWords = index.get(WordNetExpansionIndex.getRelatedWordsKey(lemma, pos));
+				Map<MappedString, Float> synonymsAndHypernyms = index.get(WordNetExpansionIndex.getSynonymsAndHypernymsKey(lemma, pos));
+				if (wnc.dict.getIndexWord(lemma, pos) == null) {
+					assertNull(relatedWords);
+					assertNull(synonymsAndHypernyms);
+					continue;
+				}
+				assertEquals(lemma + " " + pos, describe(wnc.computeRelatedWords(lemma, pos)), describe(relatedWords));
+				numExpansions++;
+				// Synonyms and hypernyms are only indexed for nouns
+				if (pos == POS.NOUN) {
+					assertEquals(lemma + " " + pos, describe(wnc.computeSynonymsAndHypernyms(lemma, pos)), describe(synonymsAndHypernyms));
+					numExpansions++;
+				} else {
+					assertNull(synonymsAndHypernyms);
+				}
+			}
+		}
+		assertTrue(numExpansions > LEMMAS.size());
+		assertNull(index.get(WordNetExpansionIndex.getRelatedWordsKey("not a lemma", POS.NOUN)));
+	}
+
+	@Test
+	public void testOtherVersionIsRejected() throws IOException {
+		WordNetExpansionIndex.build(wnc, file, LEMMAS);
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		// Version follows the magic number
+		data.seek(4);
+		data.writeInt(WordNetExpansionIndex.FILE_VERSION + 1);
+		data.close();
+		try {
+			new WordNetExpansionIndex(file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}